@@ -0,0 +1,45 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.context.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Span processor callbacks as the SDK invokes them. {@code sdkSpan} against {@code sdkSpanBaseline} gives the
+ * per-span overhead the processor adds to a full span lifecycle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public abstract class AbstractSpanProcessorBenchmark {
+
+    @Benchmark
+    public void rootSpan(SpanProcessorState state, SpanProcessorState.Spans spans) {
+        state.processor.onStart(Context.root(), spans.root);
+        state.processor.onEnd(spans.root);
+    }
+
+    @Benchmark
+    public void childSpan(SpanProcessorState state, SpanProcessorState.Spans spans) {
+        state.processor.onStart(spans.rootContext, spans.child);
+        state.processor.onEnd(spans.child);
+    }
+
+    @Benchmark
+    public void sdkSpan(SpanProcessorState state) {
+        Span span = state.tracer.spanBuilder("GET /users/{id}").setNoParent().startSpan();
+        span.end();
+    }
+
+    @Benchmark
+    public void sdkSpanBaseline(SpanProcessorState state) {
+        Span span = state.baselineTracer.spanBuilder("GET /users/{id}").setNoParent().startSpan();
+        span.end();
+    }
+}
@@ -0,0 +1,11 @@
+package io.otel.pyroscope;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Every available core runs spans through the same processor, which surfaces contention on shared state
+ * such as the span name registry.
+ */
+@Threads(Threads.MAX)
+public class ContendedSpanProcessorBenchmark extends AbstractSpanProcessorBenchmark {
+}
@@ -0,0 +1,78 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The individual steps of {@code onStart}/{@code onEnd}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class SpanProcessorHelpersBenchmark {
+
+    private PyroscopeOtelSpanProcessor processor;
+    private SdkTracerProvider tracerProvider;
+    private ReadWriteSpan root;
+    private ReadWriteSpan child;
+    private String spanId;
+    private String traceId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor = new PyroscopeOtelSpanProcessor();
+        tracerProvider = SdkTracerProvider.builder().build();
+        Tracer tracer = tracerProvider.get("benchmark");
+        Span rootSpan = tracer.spanBuilder("GET /users/{id}").setNoParent().startSpan();
+        root = (ReadWriteSpan) rootSpan;
+        child = (ReadWriteSpan) tracer.spanBuilder("SELECT users").setParent(Context.root().with(rootSpan)).startSpan();
+        spanId = root.getSpanContext().getSpanId();
+        traceId = root.getSpanContext().getTraceId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tracerProvider.close();
+    }
+
+    @Benchmark
+    public long parseSpanId() {
+        return PyroscopeOtelSpanProcessor.parseSpanId(spanId);
+    }
+
+    @Benchmark
+    public long parseHex64() {
+        return PyroscopeOtelSpanProcessor.parseHex64(traceId, 0) ^ PyroscopeOtelSpanProcessor.parseHex64(traceId, 16);
+    }
+
+    @Benchmark
+    public boolean isRootSpanRoot() {
+        return PyroscopeOtelSpanProcessor.isRootSpan(root);
+    }
+
+    @Benchmark
+    public boolean isRootSpanChild() {
+        return PyroscopeOtelSpanProcessor.isRootSpan(child);
+    }
+
+    @Benchmark
+    public long spanNameCached() {
+        return processor.spanNameId(root.getName());
+    }
+}
@@ -0,0 +1,72 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Processor shared by all benchmark threads, the way a tracer provider shares it. The library processor
+ * always talks to the real async-profiler through JNI; profiling itself is not started.
+ */
+@State(Scope.Benchmark)
+public class SpanProcessorState {
+
+    @Param({"true", "false"})
+    public boolean rootSpanOnly;
+
+    @Param({"true", "false"})
+    public boolean addSpanName;
+
+    PyroscopeOtelSpanProcessor processor;
+    Tracer tracer;
+    Tracer baselineTracer;
+    private SdkTracerProvider tracerProvider;
+    private SdkTracerProvider baselineTracerProvider;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("deprecation")
+    public void setUp() {
+        processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(rootSpanOnly)
+                .setAddSpanName(addSpanName)
+                .build());
+        tracerProvider = SdkTracerProvider.builder().addSpanProcessor(processor).build();
+        tracer = tracerProvider.get("benchmark");
+        baselineTracerProvider = SdkTracerProvider.builder().build();
+        baselineTracer = baselineTracerProvider.get("benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        tracerProvider.close();
+        baselineTracerProvider.close();
+    }
+
+    /**
+     * Spans owned by one benchmark thread. They are started once and never ended, so the processor callbacks
+     * can be invoked on them directly without measuring span creation.
+     */
+    @State(Scope.Thread)
+    public static class Spans {
+        ReadWriteSpan root;
+        ReadWriteSpan child;
+        Context rootContext;
+
+        @Setup(Level.Trial)
+        public void setUp(SpanProcessorState state) {
+            Span rootSpan = state.baselineTracer.spanBuilder("GET /users/{id}").setNoParent().startSpan();
+            rootContext = Context.root().with(rootSpan);
+            Span childSpan = state.baselineTracer.spanBuilder("SELECT users").setParent(rootContext).startSpan();
+            root = (ReadWriteSpan) rootSpan;
+            child = (ReadWriteSpan) childSpan;
+        }
+    }
+}
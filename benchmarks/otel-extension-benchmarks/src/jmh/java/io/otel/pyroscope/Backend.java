@@ -0,0 +1,36 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.ProfilerSdkFactory;
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerApiHolder;
+
+/**
+ * ProfilerApi implementations the benchmarks can run against. {@code async-profiler} is the vendored
+ * {@code ProfilerSdk}: context writes go through JNI into the real profiler, profiling itself is not started but
+ * reported as started. {@code stopped} is the stub reporting profiling as not started, which the span processor
+ * skips.
+ */
+final class Backend {
+
+    static final String STUB = "stub";
+    static final String ASYNC_PROFILER = "async-profiler";
+    static final String STOPPED = "stopped";
+
+    private Backend() {
+    }
+
+    static ProfilerApi install(String backend) {
+        ProfilerApi api;
+        if (STUB.equals(backend)) {
+            api = new StubProfilerApi();
+        } else if (ASYNC_PROFILER.equals(backend)) {
+            api = new StartedProfilerApi(ProfilerSdkFactory.create());
+        } else if (STOPPED.equals(backend)) {
+            api = new StubProfilerApi(false);
+        } else {
+            throw new IllegalArgumentException("unknown backend: " + backend);
+        }
+        ProfilerApiHolder.INSTANCE.set(api);
+        return api;
+    }
+}
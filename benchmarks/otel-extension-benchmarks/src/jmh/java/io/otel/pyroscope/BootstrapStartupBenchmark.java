@@ -0,0 +1,88 @@
+package io.otel.pyroscope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * The bootstrap jar extraction done at the start of {@code customize()}: reading the embedded jar and getting it
+ * onto disk, with an empty cache (first start), a populated cache (restarts) and the cache turned off (a new
+ * temp file per start). Single-shot, since the JVM only does this once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 200)
+@Fork(3)
+public class BootstrapStartupBenchmark {
+
+    @Param({"cold", "warm", "disabled"})
+    public String cache;
+
+    private Path root;
+    private Path dir;
+    private byte[] fallback;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("pyroscope-startup-bench");
+        dir = root.resolve("cache");
+        // The resource comes with the agent jar; use a jar-sized blob if the benchmark classpath lacks it.
+        fallback = new byte[12 * 1024];
+        new Random(42).nextBytes(fallback);
+        System.setProperty(BootstrapApiInjector.CACHE_DIR_PROPERTY, cache.equals("disabled") ? "" : dir.toString());
+        if (cache.equals("warm")) {
+            BootstrapApiInjector.extract(content());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void resetCache() throws IOException {
+        if (cache.equals("cold")) {
+            delete(dir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.clearProperty(BootstrapApiInjector.CACHE_DIR_PROPERTY);
+        delete(root);
+    }
+
+    @Benchmark
+    public Path extract() throws IOException {
+        return BootstrapApiInjector.extract(content());
+    }
+
+    private byte[] content() throws IOException {
+        byte[] content = BootstrapApiInjector.readBootstrapJar();
+        return content != null ? content : fallback;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
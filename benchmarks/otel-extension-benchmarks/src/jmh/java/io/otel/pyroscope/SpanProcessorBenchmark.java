@@ -0,0 +1,7 @@
+package io.otel.pyroscope;
+
+import org.openjdk.jmh.annotations.Threads;
+
+@Threads(1)
+public class SpanProcessorBenchmark extends AbstractSpanProcessorBenchmark {
+}
@@ -0,0 +1,54 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerScopedContext;
+
+import java.util.Map;
+
+/**
+ * Reports a ProfilerApi that was never started as profiling, so the span processor does not take its shortcut
+ * for inactive profilers and the benchmarks measure the full path into it. Everything else is delegated.
+ */
+final class StartedProfilerApi implements ProfilerApi {
+
+    final ProfilerApi delegate;
+
+    StartedProfilerApi(ProfilerApi delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void startProfiling() {
+    }
+
+    @Override
+    public boolean isProfilingStarted() {
+        return true;
+    }
+
+    @Override
+    @Deprecated
+    public ProfilerScopedContext createScopedContext(Map<String, String> labels) {
+        return delegate.createScopedContext(labels);
+    }
+
+    @Override
+    public void setTracingContext(long spanId, long spanName) {
+        delegate.setTracingContext(spanId, spanName);
+    }
+
+    @Override
+    public long registerConstant(String constant) {
+        return delegate.registerConstant(constant);
+    }
+
+    @Override
+    public void setTraceId(String traceId) {
+        delegate.setTraceId(traceId);
+    }
+
+    @Override
+    public void clearTraceId() {
+        delegate.clearTraceId();
+    }
+}
@@ -0,0 +1,62 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerScopedContext;
+
+import java.util.Map;
+
+/**
+ * ProfilerApi that does no native work, so benchmarks measure the span processor alone. Writes go to plain
+ * fields that JMH cannot see through, which keeps them from being eliminated.
+ */
+final class StubProfilerApi implements ProfilerApi {
+
+    private final boolean started;
+    long spanId;
+    long spanName;
+    String traceId;
+
+    StubProfilerApi() {
+        this(true);
+    }
+
+    StubProfilerApi(boolean started) {
+        this.started = started;
+    }
+
+    @Override
+    public void startProfiling() {
+    }
+
+    @Override
+    public boolean isProfilingStarted() {
+        return started;
+    }
+
+    @Override
+    @Deprecated
+    public ProfilerScopedContext createScopedContext(Map<String, String> labels) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTracingContext(long spanId, long spanName) {
+        this.spanId = spanId;
+        this.spanName = spanName;
+    }
+
+    @Override
+    public long registerConstant(String constant) {
+        return constant.hashCode() | 1L;
+    }
+
+    @Override
+    public void setTraceId(String traceId) {
+        this.traceId = traceId;
+    }
+
+    @Override
+    public void clearTraceId() {
+        this.traceId = null;
+    }
+}
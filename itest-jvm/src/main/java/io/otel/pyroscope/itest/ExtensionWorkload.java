@@ -0,0 +1,31 @@
+package io.otel.pyroscope.itest;
+
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
+import io.pyroscope.javaagent.api.ProfilerApiHolder;
+
+/**
+ * The extension setup: SDK autoconfiguration finds the customizer provider in the shadowed extension jar, which
+ * creates and starts its bundled profiler and adds its span processor, as it does inside the OTel agent. Only
+ * loaded on the extension class path.
+ */
+final class ExtensionWorkload {
+
+    private ExtensionWorkload() {
+    }
+
+    static Tracer tracer() {
+        return AutoConfiguredOpenTelemetrySdk.builder()
+                .addPropertiesSupplier(SpanWorkload::otelProperties)
+                .build()
+                .getOpenTelemetrySdk()
+                .getTracer("span-workload");
+    }
+
+    /**
+     * Asks the profiler the extension created. The API classes are not relocated in the extension jar.
+     */
+    static long spanNameId(String name) {
+        return ProfilerApiHolder.INSTANCE.get().registerConstant(name);
+    }
+}
@@ -0,0 +1,33 @@
+package io.otel.pyroscope.itest;
+
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
+import io.otel.pyroscope.PyroscopeOtelSpanProcessor;
+import io.pyroscope.javaagent.PyroscopeAgent;
+import io.pyroscope.javaagent.config.Config;
+import io.pyroscope.labels.v2.Pyroscope;
+
+/**
+ * The library setup: the pyroscope agent started programmatically, and the {@code lib} span processor if asked
+ * for. Without it, this is the baseline all flavors are compared to. Only loaded on the lib class path.
+ */
+final class LibWorkload {
+
+    private LibWorkload() {
+    }
+
+    static Tracer tracer(boolean processor) {
+        // Config.Builder only has the defaults, Config.build() reads the pyroscope.* system properties.
+        PyroscopeAgent.start(Config.build());
+        SdkTracerProviderBuilder builder = SdkTracerProvider.builder();
+        if (processor) {
+            builder.addSpanProcessor(new PyroscopeOtelSpanProcessor());
+        }
+        return builder.build().get("span-workload");
+    }
+
+    static long spanNameId(String name) {
+        return Pyroscope.LabelsWrapper.registerConstant(name);
+    }
+}
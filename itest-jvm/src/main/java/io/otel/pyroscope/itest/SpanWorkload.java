@@ -0,0 +1,226 @@
+package io.otel.pyroscope.itest;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Child JVM of the end-to-end suite. Starts profiling with one flavor of the span processor (or none), runs
+ * requests on several threads and writes the measured throughput and latency percentiles, the ids of the root
+ * spans it created and the profiler constant ids of their names, to files the suite reads back. The profiler
+ * writes span names to samples as those ids.
+ *
+ * Every request is a root span with a child span and a fixed amount of CPU work, so samples land inside spans.
+ * The profiler is configured by the {@code pyroscope.*} system properties the suite sets, the same way in every
+ * mode.
+ *
+ * Usage: {@code SpanWorkload <baseline|lib|extension> <threads> <warmupSeconds> <seconds> <workMicros> <result>
+ * <spanIds> <spanNames>}
+ */
+public final class SpanWorkload {
+
+    static final String[] SPAN_NAMES = {"GET /work/0", "GET /work/1", "GET /work/2", "GET /work/3"};
+    private static final int MAX_LATENCIES_PER_THREAD = 1 << 21;
+
+    static volatile long sink;
+
+    private SpanWorkload() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 8) {
+            throw new IllegalArgumentException("expected 8 arguments, got " + Arrays.toString(args));
+        }
+        String mode = args[0];
+        int threads = Integer.parseInt(args[1]);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(args[2]));
+        long measureNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(args[3]));
+        long workNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(args[4]));
+        Path result = Paths.get(args[5]);
+        Path spanIds = Paths.get(args[6]);
+        Path spanNames = Paths.get(args[7]);
+
+        Tracer tracer;
+        switch (mode) {
+            case "baseline":
+                tracer = LibWorkload.tracer(false);
+                break;
+            case "lib":
+                tracer = LibWorkload.tracer(true);
+                break;
+            case "extension":
+                tracer = ExtensionWorkload.tracer();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown mode " + mode);
+        }
+
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(tracer, workNanos, i);
+        }
+        run(workers, warmupNanos, false);
+        long elapsed = run(workers, measureNanos, true);
+
+        long ops = 0;
+        int latencyCount = 0;
+        for (Worker w : workers) {
+            ops += w.ops;
+            latencyCount += w.latencyCount;
+        }
+        long[] latencies = new long[latencyCount];
+        int n = 0;
+        for (Worker w : workers) {
+            System.arraycopy(w.latencies, 0, latencies, n, w.latencyCount);
+            n += w.latencyCount;
+        }
+        Arrays.sort(latencies);
+
+        Properties p = new Properties();
+        p.setProperty("mode", mode);
+        p.setProperty("threads", Integer.toString(threads));
+        p.setProperty("ops", Long.toString(ops));
+        p.setProperty("throughput", Double.toString(ops / (elapsed / 1e9)));
+        p.setProperty("p50", Long.toString(percentile(latencies, 0.50)));
+        p.setProperty("p99", Long.toString(percentile(latencies, 0.99)));
+        try (Writer out = Files.newBufferedWriter(result, StandardCharsets.UTF_8)) {
+            p.store(out, null);
+        }
+        try (Writer out = Files.newBufferedWriter(spanIds, StandardCharsets.UTF_8)) {
+            for (Worker w : workers) {
+                for (String id : w.spanIds) {
+                    out.write(id);
+                    out.write('\n');
+                }
+            }
+        }
+        // Registering a name again returns the id the span processor got for it. The baseline has no processor.
+        Properties names = new Properties();
+        if (!mode.equals("baseline")) {
+            for (String name : SPAN_NAMES) {
+                long id = mode.equals("lib") ? LibWorkload.spanNameId(name) : ExtensionWorkload.spanNameId(name);
+                names.setProperty(Long.toString(id), name);
+            }
+        }
+        try (Writer out = Files.newBufferedWriter(spanNames, StandardCharsets.UTF_8)) {
+            names.store(out, null);
+        }
+        // The profiler's threads would keep the JVM alive.
+        System.exit(0);
+    }
+
+    private static long run(Worker[] workers, long nanos, boolean measure) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(workers.length);
+        long start = System.nanoTime();
+        long deadline = start + nanos;
+        List<Thread> threads = new ArrayList<>();
+        for (Worker w : workers) {
+            Thread t = new Thread(() -> {
+                try {
+                    w.run(deadline, measure);
+                } finally {
+                    done.countDown();
+                }
+            }, "span-workload-" + w.index);
+            threads.add(t);
+            t.start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))];
+    }
+
+    private static final class Worker {
+        final Tracer tracer;
+        final long workNanos;
+        final int index;
+        final List<String> spanIds = new ArrayList<>();
+        long[] latencies = new long[1024];
+        int latencyCount;
+        long ops;
+
+        Worker(Tracer tracer, long workNanos, int index) {
+            this.tracer = tracer;
+            this.workNanos = workNanos;
+            this.index = index;
+        }
+
+        void run(long deadline, boolean measure) {
+            long seed = index;
+            int i = 0;
+            long now = System.nanoTime();
+            while (now < deadline) {
+                Span root = tracer.spanBuilder(SPAN_NAMES[i++ & 3]).startSpan();
+                try (Scope ignored = root.makeCurrent()) {
+                    seed = burn(workNanos / 2, seed);
+                    Span child = tracer.spanBuilder("work").startSpan();
+                    try (Scope ignored2 = child.makeCurrent()) {
+                        seed = burn(workNanos / 2, seed);
+                    } finally {
+                        child.end();
+                    }
+                } finally {
+                    root.end();
+                }
+                long end = System.nanoTime();
+                spanIds.add(root.getSpanContext().getSpanId());
+                if (measure) {
+                    ops++;
+                    record(end - now);
+                }
+                now = end;
+            }
+            sink = seed;
+        }
+
+        private void record(long nanos) {
+            if (latencyCount == latencies.length) {
+                if (latencies.length >= MAX_LATENCIES_PER_THREAD) {
+                    return;
+                }
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[latencyCount++] = nanos;
+        }
+    }
+
+    private static long burn(long nanos, long seed) {
+        long end = System.nanoTime() + nanos;
+        long x = seed;
+        do {
+            for (int i = 0; i < 64; i++) {
+                x = x * 6364136223846793005L + 1442695040888963407L;
+            }
+        } while (System.nanoTime() < end);
+        return x;
+    }
+
+    static Map<String, String> otelProperties() {
+        Map<String, String> props = new HashMap<>();
+        props.put("otel.traces.exporter", "none");
+        props.put("otel.metrics.exporter", "none");
+        props.put("otel.logs.exporter", "none");
+        return props;
+    }
+}
@@ -0,0 +1,197 @@
+package io.otel.pyroscope.itest;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@code SpanWorkload} in child JVMs against a {@link FakeIngestServer}: once without a span processor as the
+ * baseline, then with each flavor of the processor. Each flavor has to upload profiles whose samples are labeled
+ * with the spans the workload created, and has to stay within budget.properties of the baseline's throughput
+ * and p99 latency.
+ */
+public class EndToEndTest {
+
+    // Not referenced as classes: the workload needs the OTel SDK, which only the child JVMs have.
+    private static final String WORKLOAD_MAIN = "io.otel.pyroscope.itest.SpanWorkload";
+    private static final String SPAN_NAME_PREFIX = "GET /work/";
+
+    private static final int THREADS = Integer.getInteger("e2e.threads",
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    private static final int WARMUP_SECONDS = 5;
+    private static final int SECONDS = Integer.getInteger("e2e.duration", 15);
+    private static final int WORK_MICROS = 200;
+
+    private static FakeIngestServer server;
+    private static Path results;
+    private static Properties budget;
+    private static Run baseline;
+    private static final List<String> report = new ArrayList<>();
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        server = new FakeIngestServer();
+        results = Paths.get(System.getProperty("e2e.results"));
+        Files.createDirectories(results);
+        budget = new Properties();
+        try (Reader in = Files.newBufferedReader(Paths.get(System.getProperty("e2e.budget")), StandardCharsets.UTF_8)) {
+            budget.load(in);
+        }
+        report.add(String.format("%d threads, %ds measured after %ds warmup, %dus of CPU per request",
+                THREADS, SECONDS, WARMUP_SECONDS, WORK_MICROS));
+        report.add(String.format("%-10s %12s %10s %10s %16s %14s", "mode", "requests/s", "p50 us", "p99 us",
+                "throughput drop", "p99 increase"));
+        baseline = Run.start("baseline", "lib");
+        report.add(String.format("%-10s %12.0f %10.1f %10.1f", "baseline", baseline.throughput,
+                baseline.p50 / 1e3, baseline.p99 / 1e3));
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        if (results != null) {
+            Files.write(results.resolve("report.txt"), report, StandardCharsets.UTF_8);
+        }
+        report.forEach(System.out::println);
+    }
+
+    @Test
+    void testBaselineHasNoSpanLabels() throws Exception {
+        ProfileLabels labels = labels("baseline", baseline);
+        Assertions.assertTrue(labels.samples > 0, labels.toString());
+        Assertions.assertEquals(0, labels.linkedSamples, labels.toString());
+    }
+
+    @Test
+    void testLib() throws Exception {
+        check("lib", Run.start("lib", "lib"));
+    }
+
+    @Test
+    void testExtension() throws Exception {
+        check("extension", Run.start("extension", "extension"));
+    }
+
+    private static void check(String flavor, Run run) throws Exception {
+        double drop = 1 - run.throughput / baseline.throughput;
+        double p99Increase = (double) run.p99 / baseline.p99 - 1;
+        report.add(String.format("%-10s %12.0f %10.1f %10.1f %15.1f%% %13.1f%%", flavor, run.throughput,
+                run.p50 / 1e3, run.p99 / 1e3, drop * 100, p99Increase * 100));
+
+        ProfileLabels labels = labels(flavor, run);
+        Assertions.assertTrue(labels.linkedSamples > 0, "no samples labeled with a span: " + labels);
+        Assertions.assertEquals(0, labels.unknownSpanSamples, "samples labeled with unknown spans: " + labels);
+        Assertions.assertTrue(labels.namedSamples > 0, "no samples labeled with a span name: " + labels);
+        Assertions.assertEquals(0, labels.unknownNameSamples, "samples labeled with unknown span names: " + labels);
+        Assertions.assertFalse(labels.spanNames.isEmpty(), "no span name resolved: " + labels);
+        for (String name : labels.spanNames) {
+            Assertions.assertTrue(name.startsWith(SPAN_NAME_PREFIX), "unexpected span name " + name);
+        }
+
+        double maxDrop = Double.parseDouble(budget.getProperty(flavor + ".throughput.drop"));
+        double maxP99Increase = Double.parseDouble(budget.getProperty(flavor + ".p99.increase"));
+        Assertions.assertTrue(drop <= maxDrop,
+                String.format("%s throughput is %.1f%% below the baseline, budget %.1f%%", flavor, drop * 100,
+                        maxDrop * 100));
+        Assertions.assertTrue(p99Increase <= maxP99Increase,
+                String.format("%s p99 is %.1f%% above the baseline, budget %.1f%%", flavor, p99Increase * 100,
+                        maxP99Increase * 100));
+    }
+
+    private static ProfileLabels labels(String mode, Run run) throws IOException {
+        List<FakeIngestServer.Upload> uploads = server.uploads(application(mode));
+        Assertions.assertFalse(uploads.isEmpty(), "no profile uploaded by " + mode + ", see " + run.log);
+        ProfileLabels labels = new ProfileLabels();
+        for (FakeIngestServer.Upload upload : uploads) {
+            labels.add(upload.profile, run.spanIds, run.spanNames);
+        }
+        return labels;
+    }
+
+    private static String application(String mode) {
+        return "e2e-" + mode;
+    }
+
+    private static final class Run {
+        final Path log;
+        final double throughput;
+        final long p50;
+        final long p99;
+        final Set<String> spanIds;
+        final Map<Long, String> spanNames = new HashMap<>();
+
+        private Run(Path log, Properties result, Set<String> spanIds, Properties spanNames) {
+            this.log = log;
+            this.throughput = Double.parseDouble(result.getProperty("throughput"));
+            this.p50 = Long.parseLong(result.getProperty("p50"));
+            this.p99 = Long.parseLong(result.getProperty("p99"));
+            this.spanIds = spanIds;
+            for (String id : spanNames.stringPropertyNames()) {
+                this.spanNames.put(Long.parseLong(id), spanNames.getProperty(id));
+            }
+        }
+
+        static Run start(String mode, String classpath) throws Exception {
+            Path result = results.resolve(mode + ".properties");
+            Path spanIds = results.resolve(mode + ".spans");
+            Path spanNames = results.resolve(mode + ".names");
+            Path log = results.resolve(mode + ".log");
+            List<String> command = new ArrayList<>(Arrays.asList(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-Xmx1g",
+                    "-cp", System.getProperty("e2e.classpath." + classpath),
+                    "-Dpyroscope.server.address=" + server.address(),
+                    "-Dpyroscope.application.name=" + application(mode),
+                    "-Dpyroscope.format=jfr",
+                    "-Dpyroscope.profiler.event=itimer",
+                    "-Dpyroscope.upload.interval=1s",
+                    WORKLOAD_MAIN,
+                    mode,
+                    Integer.toString(THREADS),
+                    Integer.toString(WARMUP_SECONDS),
+                    Integer.toString(SECONDS),
+                    Integer.toString(WORK_MICROS),
+                    result.toString(),
+                    spanIds.toString(),
+                    spanNames.toString()));
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(log.toFile())
+                    .start();
+            if (!process.waitFor(WARMUP_SECONDS + SECONDS + 120, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                Assertions.fail(mode + " workload timed out, see " + log);
+            }
+            Assertions.assertEquals(0, process.exitValue(), mode + " workload failed, see " + log);
+            return new Run(log, load(result), new HashSet<>(Files.readAllLines(spanIds, StandardCharsets.UTF_8)),
+                    load(spanNames));
+        }
+
+        private static Properties load(Path file) throws IOException {
+            Properties p = new Properties();
+            try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                p.load(in);
+            }
+            return p;
+        }
+    }
+}
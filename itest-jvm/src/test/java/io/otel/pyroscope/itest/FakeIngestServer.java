@@ -0,0 +1,199 @@
+package io.otel.pyroscope.itest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Accepts what the pyroscope agent sends to {@code /ingest} and keeps it in memory. Multipart uploads are split
+ * into their parts; the profile is the {@code jfr} part, or the whole body for single part uploads.
+ */
+final class FakeIngestServer implements AutoCloseable {
+
+    static final class Upload {
+        final Map<String, String> query;
+        final byte[] profile;
+
+        Upload(Map<String, String> query, byte[] profile) {
+            this.query = query;
+            this.profile = profile;
+        }
+
+        /**
+         * The application name without the profile type suffix and labels, e.g. {@code app} for
+         * {@code app.cpu{env=test}}.
+         */
+        String application() {
+            String name = query.getOrDefault("name", "");
+            int labels = name.indexOf('{');
+            if (labels >= 0) {
+                name = name.substring(0, labels);
+            }
+            int type = name.lastIndexOf('.');
+            return type >= 0 ? name.substring(0, type) : name;
+        }
+    }
+
+    private final HttpServer server;
+    private final List<Upload> uploads = new CopyOnWriteArrayList<>();
+
+    FakeIngestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ingest", this::ingest);
+        server.start();
+    }
+
+    String address() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    List<Upload> uploads(String application) {
+        List<Upload> result = new ArrayList<>();
+        for (Upload u : uploads) {
+            if (u.application().equals(application)) {
+                result.add(u);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void ingest(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] profile = body;
+            if (contentType != null && contentType.startsWith("multipart/form-data")) {
+                profile = multipart(body, boundary(contentType)).get("jfr");
+            }
+            if (profile != null) {
+                uploads.add(new Upload(query(exchange.getRequestURI().getRawQuery()), gunzip(profile)));
+            }
+            exchange.sendResponseHeaders(profile != null ? 200 : 400, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String boundary(String contentType) {
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.startsWith("boundary=")) {
+                String b = param.substring("boundary=".length());
+                return b.startsWith("\"") ? b.substring(1, b.length() - 1) : b;
+            }
+        }
+        throw new IllegalArgumentException("no boundary in " + contentType);
+    }
+
+    /**
+     * Returns the parts of a multipart/form-data body by their field name.
+     */
+    static Map<String, byte[]> multipart(byte[] body, String boundary) {
+        Map<String, byte[]> parts = new HashMap<>();
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        int start = indexOf(body, delimiter, 0);
+        while (start >= 0) {
+            int headersStart = start + delimiter.length + 2;
+            int next = indexOf(body, delimiter, headersStart);
+            if (next < 0 || headersStart > body.length) {
+                break;
+            }
+            int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), headersStart);
+            if (headersEnd < 0 || headersEnd > next) {
+                break;
+            }
+            String headers = new String(body, headersStart, headersEnd - headersStart, StandardCharsets.UTF_8);
+            String name = fieldName(headers);
+            // The part ends with the CRLF that precedes the next delimiter.
+            int contentStart = headersEnd + 4;
+            int contentEnd = next - 2;
+            if (name != null && contentEnd >= contentStart) {
+                byte[] content = new byte[contentEnd - contentStart];
+                System.arraycopy(body, contentStart, content, 0, content.length);
+                parts.put(name, content);
+            }
+            start = next;
+        }
+        return parts;
+    }
+
+    private static String fieldName(String headers) {
+        for (String line : headers.split("\r\n")) {
+            if (!line.toLowerCase().startsWith("content-disposition:")) {
+                continue;
+            }
+            int i = line.indexOf("name=\"");
+            if (i >= 0) {
+                int end = line.indexOf('"', i + 6);
+                return line.substring(i + 6, end);
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = Math.max(0, from); i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static Map<String, String> query(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            String key = eq < 0 ? param : param.substring(0, eq);
+            String value = eq < 0 ? "" : param.substring(eq + 1);
+            query.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        if (data.length < 2 || (data[0] & 0xff) != 0x1f || (data[1] & 0xff) != 0x8b) {
+            return data;
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
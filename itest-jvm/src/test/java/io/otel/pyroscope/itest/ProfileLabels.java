@@ -0,0 +1,96 @@
+package io.otel.pyroscope.itest;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Span labels of the CPU samples in uploaded JFR profiles. The span id and span name are read from the
+ * {@code spanId} and {@code spanName} fields of the sample events, like the JFR splitter does; other profiler builds
+ * can be checked with {@code -De2e.span.id.field} and {@code -De2e.span.name.field}. The profiler writes span names
+ * as the constant ids it registered them with, which are resolved with the ids the workload wrote out.
+ */
+final class ProfileLabels {
+
+    private static final String SPAN_ID_FIELD = System.getProperty("e2e.span.id.field", "spanId");
+    private static final String SPAN_NAME_FIELD = System.getProperty("e2e.span.name.field", "spanName");
+
+    long samples;
+    long linkedSamples;
+    /** Linked samples whose span id is not one of the spans the workload created. */
+    long unknownSpanSamples;
+    /** Linked samples with a span name, as a string or as a non-zero constant id. */
+    long namedSamples;
+    /** Named samples whose constant id is not one the workload registered a span name with. */
+    long unknownNameSamples;
+    final Set<String> spanNames = new HashSet<>();
+
+    void add(byte[] jfr, Set<String> spanIds, Map<Long, String> spanNameIds) throws IOException {
+        Path file = Files.createTempFile("e2e-upload-", ".jfr");
+        try {
+            Files.write(file, jfr);
+            try (RecordingFile recording = new RecordingFile(file)) {
+                while (recording.hasMoreEvents()) {
+                    RecordedEvent event = recording.readEvent();
+                    if (event.getStackTrace() == null || !event.getEventType().getName().endsWith("ExecutionSample")) {
+                        continue;
+                    }
+                    samples++;
+                    String spanId = spanId(event);
+                    if (spanId == null) {
+                        continue;
+                    }
+                    linkedSamples++;
+                    if (!spanIds.contains(spanId)) {
+                        unknownSpanSamples++;
+                    }
+                    if (event.hasField(SPAN_NAME_FIELD)) {
+                        Object name = event.getValue(SPAN_NAME_FIELD);
+                        if (name instanceof String) {
+                            namedSamples++;
+                            spanNames.add((String) name);
+                        } else if (name instanceof Number && ((Number) name).longValue() != 0) {
+                            namedSamples++;
+                            String resolved = spanNameIds.get(((Number) name).longValue());
+                            if (resolved == null) {
+                                unknownNameSamples++;
+                            } else {
+                                spanNames.add(resolved);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static String spanId(RecordedEvent event) {
+        if (!event.hasField(SPAN_ID_FIELD)) {
+            return null;
+        }
+        Object v = event.getValue(SPAN_ID_FIELD);
+        if (v instanceof Number) {
+            long id = ((Number) v).longValue();
+            if (id == 0) {
+                return null;
+            }
+            String hex = Long.toHexString(id);
+            return "0000000000000000".substring(hex.length()) + hex;
+        }
+        return v instanceof String && !((String) v).isEmpty() ? (String) v : null;
+    }
+
+    @Override
+    public String toString() {
+        return samples + " samples, " + linkedSamples + " linked, " + unknownSpanSamples + " with an unknown span, "
+                + namedSamples + " named " + spanNames + ", " + unknownNameSamples + " with an unknown name";
+    }
+}
@@ -0,0 +1,75 @@
+package io.otel.pyroscope.splitter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chunk boundaries of a JFR file. A recording is a sequence of self-contained chunks, each with its own metadata
+ * and constant pools, so every chunk copied to a file of its own is a valid recording and can be parsed in
+ * parallel with the others.
+ */
+final class JfrChunks {
+
+    private static final int HEADER_SIZE = 16;
+    private static final int MAGIC = 0x464c5200; // "FLR\0"
+
+    private JfrChunks() {
+    }
+
+    static final class Chunk {
+        final Path file;
+        final long offset;
+        final long size;
+
+        Chunk(Path file, long offset, long size) {
+            this.file = file;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    static List<Chunk> read(Path file) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (offset + HEADER_SIZE <= length) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (ch.read(header, offset + header.position()) < 0) {
+                        throw new IOException("unexpected end of " + file + " at " + offset);
+                    }
+                }
+                header.flip();
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException(file + " is not a JFR file (no chunk header at " + offset + ")");
+                }
+                long size = header.getLong(8);
+                if (size < HEADER_SIZE || offset + size > length) {
+                    // The last chunk of a recording that is still being written: not parseable yet.
+                    break;
+                }
+                chunks.add(new Chunk(file, offset, size));
+                offset += size;
+            }
+        }
+        return chunks;
+    }
+
+    static void copy(Chunk chunk, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(chunk.file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < chunk.size) {
+                done += in.transferTo(chunk.offset + done, chunk.size - done, out);
+            }
+        }
+    }
+}
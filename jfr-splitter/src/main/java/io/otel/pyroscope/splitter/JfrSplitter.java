@@ -0,0 +1,192 @@
+package io.otel.pyroscope.splitter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line entry point, see {@link SplitterOptions#USAGE}.
+ *
+ * Recordings with several chunks are processed in parallel: each chunk is copied to a temp file and parsed by its
+ * own worker into its own {@link StackAggregator}, which is merged into the result when the chunk is done. At
+ * most {@code threads} chunks are in flight, so memory stays at {@code threads + 1} aggregators whatever the
+ * recording size.
+ */
+public final class JfrSplitter {
+
+    private final SplitterOptions options;
+    private final PrintStream log;
+    private long samples;
+    private long unlinked;
+    private long untraced;
+
+    JfrSplitter(SplitterOptions options, PrintStream log) {
+        this.options = options;
+        this.log = log;
+    }
+
+    public static void main(String[] args) {
+        SplitterOptions options;
+        try {
+            options = SplitterOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("error: " + e.getMessage());
+            System.err.println(SplitterOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.println(SplitterOptions.USAGE);
+            return;
+        }
+        try {
+            new JfrSplitter(options, System.err).run(System.out);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("error: " + e);
+            System.exit(1);
+        }
+    }
+
+    void run(OutputStream stdout) throws IOException {
+        StackAggregator result = aggregate();
+        List<StackAggregator.Group> groups = result.top(options.top);
+        log.printf("%d samples, %d outside of spans, %d groups, %d reported%n", samples, unlinked, result.groups(),
+                groups.size());
+        if (untraced > 0) {
+            log.printf("%d samples in spans without a trace id%n", untraced);
+        }
+        if (result.droppedValue() > 0) {
+            log.printf("%d of the value was dropped to stay within --max-stacks%n", result.droppedValue());
+        }
+        if (options.output == null) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8));
+            for (StackAggregator.Group g : groups) {
+                writeCollapsed(g, display(g) + ";", out);
+            }
+            out.flush();
+            return;
+        }
+        Files.createDirectories(options.output);
+        int rank = 0;
+        for (StackAggregator.Group g : groups) {
+            rank++;
+            String base = String.format("%03d-%s", rank, fileName(display(g)));
+            if (options.format == SplitterOptions.Format.PPROF) {
+                try (OutputStream out = Files.newOutputStream(options.output.resolve(base + ".pb.gz"))) {
+                    PprofWriter.write(g, options.value, out);
+                }
+            } else {
+                try (Writer out = Files.newBufferedWriter(options.output.resolve(base + ".collapsed"), StandardCharsets.UTF_8)) {
+                    writeCollapsed(g, "", out);
+                }
+            }
+        }
+        log.printf("wrote %d files to %s%n", groups.size(), options.output);
+    }
+
+    StackAggregator aggregate() throws IOException {
+        StackAggregator result = new StackAggregator(options.maxStacks);
+        List<Path> direct = new ArrayList<>();
+        List<JfrChunks.Chunk> chunked = new ArrayList<>();
+        for (Path input : options.inputs) {
+            List<JfrChunks.Chunk> chunks = JfrChunks.read(input);
+            if (options.threads == 1 || chunks.size() <= 1) {
+                direct.add(input);
+            } else {
+                chunked.addAll(chunks);
+            }
+        }
+        for (Path input : direct) {
+            RecordingReader reader = new RecordingReader(options);
+            reader.read(input, result);
+            count(reader);
+        }
+        if (!chunked.isEmpty()) {
+            readChunks(chunked, result);
+        }
+        return result;
+    }
+
+    private void readChunks(List<JfrChunks.Chunk> chunks, StackAggregator result) throws IOException {
+        Path tmp = Files.createTempDirectory("pyroscope-jfr-splitter-");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.threads, chunks.size()));
+        try {
+            List<Future<RecordingReader>> futures = new ArrayList<>();
+            for (int i = 0; i < chunks.size(); i++) {
+                JfrChunks.Chunk chunk = chunks.get(i);
+                Path file = tmp.resolve("chunk-" + i + ".jfr");
+                futures.add(executor.submit(() -> {
+                    try {
+                        JfrChunks.copy(chunk, file);
+                        StackAggregator partial = new StackAggregator(options.maxStacks);
+                        RecordingReader reader = new RecordingReader(options);
+                        reader.read(file, partial);
+                        synchronized (result) {
+                            result.merge(partial);
+                        }
+                        return reader;
+                    } finally {
+                        Files.deleteIfExists(file);
+                    }
+                }));
+            }
+            for (Future<RecordingReader> f : futures) {
+                count(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void count(RecordingReader reader) {
+        samples += reader.samples;
+        unlinked += reader.unlinked;
+        untraced += reader.untraced;
+    }
+
+    private static void writeCollapsed(StackAggregator.Group g, String prefix, Writer out) throws IOException {
+        for (Map.Entry<String, long[]> e : g.stacks.entrySet()) {
+            out.write(prefix);
+            out.write(e.getKey());
+            out.write(' ');
+            out.write(Long.toString(e.getValue()[0]));
+            out.write('\n');
+        }
+    }
+
+    private static String display(StackAggregator.Group g) {
+        return g.label == null ? g.key : g.key + " " + g.label;
+    }
+
+    static String fileName(String s) {
+        StringBuilder sb = new StringBuilder(Math.min(s.length(), 100));
+        for (int i = 0; i < s.length() && sb.length() < 100; i++) {
+            char c = s.charAt(i);
+            sb.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package io.otel.pyroscope.splitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes one group as a gzipped pprof {@code Profile}. Only the messages a flame graph needs are written: sample
+ * type, samples, one location per function and the string table. The protobuf encoding is done by hand to keep
+ * the tool free of dependencies.
+ */
+final class PprofWriter {
+
+    // Field numbers from profile.proto.
+    private static final int PROFILE_SAMPLE_TYPE = 1;
+    private static final int PROFILE_SAMPLE = 2;
+    private static final int PROFILE_LOCATION = 4;
+    private static final int PROFILE_FUNCTION = 5;
+    private static final int PROFILE_STRING_TABLE = 6;
+    private static final int VALUE_TYPE_TYPE = 1;
+    private static final int VALUE_TYPE_UNIT = 2;
+    private static final int SAMPLE_LOCATION_ID = 1;
+    private static final int SAMPLE_VALUE = 2;
+    private static final int LOCATION_ID = 1;
+    private static final int LOCATION_LINE = 4;
+    private static final int LINE_FUNCTION_ID = 1;
+    private static final int FUNCTION_ID = 1;
+    private static final int FUNCTION_NAME = 2;
+    private static final int FUNCTION_SYSTEM_NAME = 3;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Long> stringIds = new HashMap<>();
+    private final Map<String, Long> functionIds = new HashMap<>();
+    private final ByteArrayOutputStream functions = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream locations = new ByteArrayOutputStream();
+
+    private PprofWriter() {
+        string("");
+    }
+
+    static void write(StackAggregator.Group group, String valueName, OutputStream out) throws IOException {
+        new PprofWriter().writeProfile(group, valueName, out);
+    }
+
+    private void writeProfile(StackAggregator.Group group, String valueName, OutputStream out) throws IOException {
+        ByteArrayOutputStream profile = new ByteArrayOutputStream();
+
+        ByteArrayOutputStream valueType = new ByteArrayOutputStream();
+        writeVarintField(valueType, VALUE_TYPE_TYPE, string(valueName));
+        writeVarintField(valueType, VALUE_TYPE_UNIT, string(unit(valueName)));
+        writeBytesField(profile, PROFILE_SAMPLE_TYPE, valueType.toByteArray());
+
+        for (Map.Entry<String, long[]> e : group.stacks.entrySet()) {
+            String[] frames = e.getKey().split(";");
+            ByteArrayOutputStream ids = new ByteArrayOutputStream();
+            // pprof lists locations leaf first.
+            for (int i = frames.length - 1; i >= 0; i--) {
+                writeVarint(ids, function(frames[i]));
+            }
+            ByteArrayOutputStream values = new ByteArrayOutputStream();
+            writeVarint(values, e.getValue()[0]);
+            ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            writeBytesField(sample, SAMPLE_LOCATION_ID, ids.toByteArray());
+            writeBytesField(sample, SAMPLE_VALUE, values.toByteArray());
+            writeBytesField(profile, PROFILE_SAMPLE, sample.toByteArray());
+        }
+
+        locations.writeTo(profile);
+        functions.writeTo(profile);
+        for (String s : strings) {
+            writeBytesField(profile, PROFILE_STRING_TABLE, s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        profile.writeTo(gzip);
+        gzip.finish();
+    }
+
+    private long function(String name) {
+        Long id = functionIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        id = (long) functionIds.size() + 1;
+        functionIds.put(name, id);
+        long nameId = string(name);
+
+        ByteArrayOutputStream function = new ByteArrayOutputStream();
+        writeVarintField(function, FUNCTION_ID, id);
+        writeVarintField(function, FUNCTION_NAME, nameId);
+        writeVarintField(function, FUNCTION_SYSTEM_NAME, nameId);
+        writeBytesField(functions, PROFILE_FUNCTION, function.toByteArray());
+
+        // One location per function, with the same id.
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        writeVarintField(line, LINE_FUNCTION_ID, id);
+        ByteArrayOutputStream location = new ByteArrayOutputStream();
+        writeVarintField(location, LOCATION_ID, id);
+        writeBytesField(location, LOCATION_LINE, line.toByteArray());
+        writeBytesField(locations, PROFILE_LOCATION, location.toByteArray());
+        return id;
+    }
+
+    private long string(String s) {
+        Long id = stringIds.get(s);
+        if (id == null) {
+            id = (long) strings.size();
+            strings.add(s);
+            stringIds.put(s, id);
+        }
+        return id;
+    }
+
+    static String unit(String valueName) {
+        String v = valueName.toLowerCase(Locale.ROOT);
+        if (v.equals("duration")) {
+            return "nanoseconds";
+        }
+        if (v.contains("size") || v.contains("bytes")) {
+            return "bytes";
+        }
+        return "count";
+    }
+
+    private static void writeVarintField(ByteArrayOutputStream out, int field, long value) {
+        writeVarint(out, (long) field << 3);
+        writeVarint(out, value);
+    }
+
+    private static void writeBytesField(ByteArrayOutputStream out, int field, byte[] bytes) {
+        writeVarint(out, ((long) field << 3) | 2);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,194 @@
+package io.otel.pyroscope.splitter;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Streams the sample events of one recording into a {@link StackAggregator}. Events are read one at a time, so
+ * memory only depends on the aggregation, not on the recording size.
+ *
+ * The span id and trace id may be written as numbers or strings, and the span name as a string or as the
+ * constant id the profiler registered it with; numeric names are reported as {@code #<id>}. The profiler writes
+ * the trace id as two longs, {@code traceIdHi} and {@code traceIdLo}, which are joined into the usual 32 hex
+ * digits. Samples of a span that has no trace id or no name are grouped as {@value #NO_TRACE} or
+ * {@value #NO_NAME} rather than as outside of spans.
+ *
+ * With {@code --value samples}, an event with a numeric {@code samples} field counts as that many samples: the
+ * profiler writes one wall-clock event for a run of samples of an idle thread.
+ */
+final class RecordingReader {
+
+    static final String UNLINKED = "[no span]";
+    static final String NO_TRACE = "[no trace id]";
+    static final String NO_NAME = "[no span name]";
+
+    private static final String SAMPLES = "samples";
+
+    private final SplitterOptions options;
+    long samples;
+    long unlinked;
+    long untraced;
+
+    RecordingReader(SplitterOptions options) {
+        this.options = options;
+    }
+
+    void read(Path recording, StackAggregator aggregator) throws IOException {
+        StringBuilder sb = new StringBuilder(1024);
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                if (!options.events.contains(event.getEventType().getName())) {
+                    continue;
+                }
+                RecordedStackTrace stackTrace = event.getStackTrace();
+                if (stackTrace == null) {
+                    continue;
+                }
+                samples++;
+                String spanId = id(event, options.spanIdField);
+                String key;
+                String label = null;
+                if (spanId == null) {
+                    unlinked++;
+                    if (!options.includeUnlinked) {
+                        continue;
+                    }
+                    key = UNLINKED;
+                } else if (options.groupBy == SplitterOptions.GroupBy.SPAN) {
+                    key = spanId;
+                    label = name(event);
+                } else if (options.groupBy == SplitterOptions.GroupBy.NAME) {
+                    key = name(event);
+                    if (key == null) {
+                        key = NO_NAME;
+                    }
+                } else {
+                    key = traceId(event);
+                    if (key == null) {
+                        untraced++;
+                        key = NO_TRACE;
+                    }
+                }
+                aggregator.add(key, label, collapse(stackTrace, sb), value(event));
+            }
+        }
+    }
+
+    private long value(RecordedEvent event) {
+        String value = options.value;
+        if (value.equals(SAMPLES)) {
+            if (event.hasField(SAMPLES)) {
+                Object v = event.getValue(SAMPLES);
+                if (v instanceof Number && ((Number) v).longValue() > 0) {
+                    return ((Number) v).longValue();
+                }
+            }
+            return 1;
+        }
+        if (value.equals("duration")) {
+            return event.getDuration().toNanos();
+        }
+        if (!event.hasField(value)) {
+            return 0;
+        }
+        Object v = event.getValue(value);
+        return v instanceof Number ? ((Number) v).longValue() : 0;
+    }
+
+    /**
+     * Returns the id in hex, or null if the event has no such field or the id is zero (no span).
+     */
+    private static String id(RecordedEvent event, String field) {
+        if (!event.hasField(field)) {
+            return null;
+        }
+        Object v = event.getValue(field);
+        if (v instanceof Number) {
+            long id = ((Number) v).longValue();
+            return id == 0 ? null : hex(id);
+        }
+        if (v instanceof String && !((String) v).isEmpty() && !isZero((String) v)) {
+            return (String) v;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the trace id in hex, or null if the event has no trace id fields or the id is zero.
+     */
+    private String traceId(RecordedEvent event) {
+        List<String> fields = options.traceIdFields;
+        if (fields.size() == 1) {
+            return id(event, fields.get(0));
+        }
+        if (!event.hasField(fields.get(0)) || !event.hasField(fields.get(1))) {
+            return null;
+        }
+        Object high = event.getValue(fields.get(0));
+        Object low = event.getValue(fields.get(1));
+        if (!(high instanceof Number) || !(low instanceof Number)) {
+            return null;
+        }
+        long h = ((Number) high).longValue();
+        long l = ((Number) low).longValue();
+        return h == 0 && l == 0 ? null : hex(h) + hex(l);
+    }
+
+    private String name(RecordedEvent event) {
+        String field = options.spanNameField;
+        if (!event.hasField(field)) {
+            return null;
+        }
+        Object v = event.getValue(field);
+        if (v instanceof Number) {
+            long id = ((Number) v).longValue();
+            return id == 0 ? null : "#" + id;
+        }
+        return v == null ? null : v.toString();
+    }
+
+    /**
+     * Frames root first, separated by {@code ;}, as in the collapsed stack format.
+     */
+    static String collapse(RecordedStackTrace stackTrace, StringBuilder sb) {
+        sb.setLength(0);
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            RecordedMethod method = frames.get(i).getMethod();
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            if (method == null) {
+                sb.append("[unknown]");
+            } else {
+                sb.append(method.getType().getName()).append('.').append(method.getName());
+            }
+        }
+        if (stackTrace.isTruncated()) {
+            sb.insert(0, "[truncated];");
+        }
+        return sb.toString();
+    }
+
+    private static boolean isZero(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String hex(long v) {
+        String s = Long.toHexString(v);
+        return s.length() == 16 ? s : "0000000000000000".substring(s.length()) + s;
+    }
+}
@@ -0,0 +1,164 @@
+package io.otel.pyroscope.splitter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+final class SplitterOptions {
+
+    enum GroupBy { SPAN, NAME, TRACE }
+
+    enum Format { COLLAPSED, PPROF }
+
+    static final String USAGE = String.join("\n",
+            "Usage: pyroscope-jfr-splitter [options] <recording.jfr>...",
+            "",
+            "Aggregates the stacks of a profiler JFR recording per span, span name or trace id, using the span",
+            "context set by the Pyroscope OpenTelemetry span processor.",
+            "",
+            "Options:",
+            "  --by span|name|trace       group samples by span id, span name or trace id (default: span)",
+            "  --event cpu|wall|alloc|lock|<names>",
+            "                             sample events to read, an alias or comma-separated event names (default: cpu)",
+            "  --value samples|duration|<field>",
+            "                             what a sample counts: 1 (the event's samples field for wall-clock",
+            "                             events), its duration or a numeric field (default: samples)",
+            "  --format collapsed|pprof   output format (default: collapsed)",
+            "  -o, --output <dir>         write one file per group into <dir>; without it, collapsed stacks of all",
+            "                             groups go to stdout with the group as the root frame",
+            "  --top <n>                  only the n groups with the largest values, 0 for all (default: 20)",
+            "  --include-unlinked         also report samples taken outside of any span",
+            "  --threads <n>              chunks parsed in parallel (default: number of CPUs)",
+            "  --max-stacks <n>           distinct (group, stack) entries kept per worker (default: 1000000)",
+            "  --span-id-field <name>     event field with the span id (default: spanId)",
+            "  --span-name-field <name>   event field with the span name (default: spanName)",
+            "  --trace-id-field <name>|<high>,<low>",
+            "                             event field with the trace id, or the two fields with its high and low",
+            "                             64 bits (default: traceIdHi,traceIdLo)",
+            "  -h, --help                 show this help");
+
+    private static final Map<String, List<String>> EVENT_ALIASES = new HashMap<>();
+
+    static {
+        EVENT_ALIASES.put("cpu", Collections.singletonList("jdk.ExecutionSample"));
+        EVENT_ALIASES.put("wall", Collections.singletonList("profiler.WallClockSample"));
+        EVENT_ALIASES.put("alloc", Arrays.asList("jdk.ObjectAllocationInNewTLAB", "jdk.ObjectAllocationOutsideTLAB",
+                "jdk.ObjectAllocationSample"));
+        // The profiler records park events without the span context.
+        EVENT_ALIASES.put("lock", Collections.singletonList("jdk.JavaMonitorEnter"));
+    }
+
+    final List<Path> inputs = new ArrayList<>();
+    GroupBy groupBy = GroupBy.SPAN;
+    Set<String> events = new HashSet<>(EVENT_ALIASES.get("cpu"));
+    String value = "samples";
+    Format format = Format.COLLAPSED;
+    Path output;
+    int top = 20;
+    boolean includeUnlinked = false;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int maxStacks = 1_000_000;
+    String spanIdField = "spanId";
+    String spanNameField = "spanName";
+    List<String> traceIdFields = Arrays.asList("traceIdHi", "traceIdLo");
+    boolean help;
+
+    static SplitterOptions parse(String[] args) {
+        SplitterOptions o = new SplitterOptions();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "-h":
+                case "--help":
+                    o.help = true;
+                    break;
+                case "--by":
+                    o.groupBy = GroupBy.valueOf(arg(args, ++i, a).toUpperCase(Locale.ROOT));
+                    break;
+                case "--event":
+                    o.events = events(arg(args, ++i, a));
+                    break;
+                case "--value":
+                    o.value = arg(args, ++i, a);
+                    break;
+                case "--format":
+                    o.format = Format.valueOf(arg(args, ++i, a).toUpperCase(Locale.ROOT));
+                    break;
+                case "-o":
+                case "--output":
+                    o.output = Paths.get(arg(args, ++i, a));
+                    break;
+                case "--top":
+                    o.top = Integer.parseInt(arg(args, ++i, a));
+                    break;
+                case "--include-unlinked":
+                    o.includeUnlinked = true;
+                    break;
+                case "--threads":
+                    o.threads = Math.max(1, Integer.parseInt(arg(args, ++i, a)));
+                    break;
+                case "--max-stacks":
+                    o.maxStacks = Integer.parseInt(arg(args, ++i, a));
+                    break;
+                case "--span-id-field":
+                    o.spanIdField = arg(args, ++i, a);
+                    break;
+                case "--span-name-field":
+                    o.spanNameField = arg(args, ++i, a);
+                    break;
+                case "--trace-id-field":
+                    o.traceIdFields = traceIdFields(arg(args, ++i, a));
+                    break;
+                default:
+                    if (a.startsWith("-")) {
+                        throw new IllegalArgumentException("unknown option " + a);
+                    }
+                    o.inputs.add(Paths.get(a));
+            }
+        }
+        if (!o.help && o.inputs.isEmpty()) {
+            throw new IllegalArgumentException("no recording given");
+        }
+        if (o.format == Format.PPROF && o.output == null) {
+            throw new IllegalArgumentException("pprof output needs --output <dir>");
+        }
+        return o;
+    }
+
+    private static String arg(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static List<String> traceIdFields(String spec) {
+        List<String> fields = Arrays.asList(spec.split(","));
+        if (fields.size() > 2 || fields.contains("")) {
+            throw new IllegalArgumentException("--trace-id-field takes one field or two comma-separated fields");
+        }
+        return fields;
+    }
+
+    private static Set<String> events(String spec) {
+        Set<String> events = new HashSet<>();
+        for (String s : spec.split(",")) {
+            String name = s.trim();
+            List<String> alias = EVENT_ALIASES.get(name.toLowerCase(Locale.ROOT));
+            if (alias != null) {
+                events.addAll(alias);
+            } else if (!name.isEmpty()) {
+                events.add(name);
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,140 @@
+package io.otel.pyroscope.splitter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sample values per group (span, span name or trace) and collapsed stack. Memory is bounded by {@code maxStacks}
+ * distinct (group, stack) entries: when the limit is hit, the groups with the smallest totals are dropped until a
+ * quarter of the entries is free. Large groups survive pruning, so top-N results stay exact as long as the top
+ * groups fit; their values are then only missing what was dropped before they grew big. If the largest group
+ * alone is over the limit, its smallest stacks are folded into a single {@value #PRUNED} stack.
+ */
+final class StackAggregator {
+
+    static final String PRUNED = "[pruned stacks]";
+
+    private final int maxStacks;
+    private final Map<String, Group> groups = new HashMap<>();
+    // Identical stacks of different groups share one string.
+    private final Map<String, String> stackStrings = new HashMap<>();
+    private int entries;
+    private long droppedValue;
+
+    StackAggregator(int maxStacks) {
+        this.maxStacks = Math.max(16, maxStacks);
+    }
+
+    static final class Group {
+        final String key;
+        String label;
+        long total;
+        final Map<String, long[]> stacks = new HashMap<>();
+
+        Group(String key) {
+            this.key = key;
+        }
+    }
+
+    void add(String key, String label, String stack, long value) {
+        Group group = groups.get(key);
+        if (group == null) {
+            group = new Group(key);
+            groups.put(key, group);
+        }
+        if (group.label == null) {
+            group.label = label;
+        }
+        group.total += value;
+        long[] v = group.stacks.get(stack);
+        if (v == null) {
+            String s = stackStrings.get(stack);
+            if (s == null) {
+                stackStrings.put(stack, stack);
+                s = stack;
+            }
+            group.stacks.put(s, new long[]{value});
+            if (++entries > maxStacks) {
+                prune();
+            }
+        } else {
+            v[0] += value;
+        }
+    }
+
+    void merge(StackAggregator other) {
+        droppedValue += other.droppedValue;
+        for (Group g : other.groups.values()) {
+            for (Map.Entry<String, long[]> e : g.stacks.entrySet()) {
+                add(g.key, g.label, e.getKey(), e.getValue()[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns the {@code n} groups with the largest totals (all of them if {@code n <= 0}), largest first.
+     */
+    List<Group> top(int n) {
+        List<Group> sorted = new ArrayList<>(groups.values());
+        Collections.sort(sorted, (a, b) -> Long.compare(b.total, a.total));
+        return n > 0 && sorted.size() > n ? sorted.subList(0, n) : sorted;
+    }
+
+    int groups() {
+        return groups.size();
+    }
+
+    long droppedValue() {
+        return droppedValue;
+    }
+
+    private void prune() {
+        List<Group> sorted = new ArrayList<>(groups.values());
+        Collections.sort(sorted, (a, b) -> Long.compare(a.total, b.total));
+        int target = maxStacks - maxStacks / 4;
+        for (int i = 0; i < sorted.size() - 1 && entries > target; i++) {
+            Group g = sorted.get(i);
+            groups.remove(g.key);
+            entries -= g.stacks.size();
+            droppedValue += g.total;
+        }
+        if (entries > target) {
+            foldSmallestStacks(sorted.get(sorted.size() - 1), entries - target);
+        }
+        stackStrings.clear();
+        for (Group g : groups.values()) {
+            for (String s : g.stacks.keySet()) {
+                stackStrings.put(s, s);
+            }
+        }
+    }
+
+    private void foldSmallestStacks(Group g, int count) {
+        List<Map.Entry<String, long[]>> stacks = new ArrayList<>(g.stacks.entrySet());
+        Collections.sort(stacks, (a, b) -> Long.compare(a.getValue()[0], b.getValue()[0]));
+        long folded = 0;
+        int removed = 0;
+        for (Map.Entry<String, long[]> e : stacks) {
+            if (removed >= count) {
+                break;
+            }
+            if (e.getKey().equals(PRUNED)) {
+                continue;
+            }
+            folded += e.getValue()[0];
+            g.stacks.remove(e.getKey());
+            removed++;
+        }
+        entries -= removed;
+        long[] v = g.stacks.get(PRUNED);
+        if (v == null) {
+            g.stacks.put(PRUNED, new long[]{folded});
+            entries++;
+        } else {
+            v[0] += folded;
+        }
+    }
+}
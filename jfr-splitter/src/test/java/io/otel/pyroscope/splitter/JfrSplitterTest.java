@@ -0,0 +1,251 @@
+package io.otel.pyroscope.splitter;
+
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class JfrSplitterTest {
+
+    // The span context fields of the profiler's sample events. Names are the ids the profiler registered them with.
+    @Name("test.SpanSample")
+    static class SpanSample extends Event {
+        long spanId;
+        long spanName;
+        long traceIdHi;
+        long traceIdLo;
+    }
+
+    @Name("test.WallSample")
+    static class WallSample extends Event {
+        long spanId;
+        long spanName;
+        int samples;
+    }
+
+    private static final long NAME_A = 1;
+    private static final long NAME_B = 2;
+    private static final long TRACE_HIGH = 0x0af7651916cd43ddL;
+    private static final long TRACE_A = 0x8448eb211c80319cL;
+    private static final long TRACE_B = 0x8448eb211c80319dL;
+
+    @Test
+    void testSplitsMultiChunkRecordingByName() throws IOException {
+        Path dir = Files.createTempDirectory("jfr-splitter-test-");
+        Path recording = twoChunkRecording(dir);
+        Assertions.assertEquals(2, JfrChunks.read(recording).size());
+
+        SplitterOptions options = SplitterOptions.parse(new String[]{
+                "--event", "test.SpanSample", "--by", "name", "--threads", "2", "--top", "0", recording.toString()});
+        StackAggregator result = new JfrSplitter(options, System.err).aggregate();
+
+        List<StackAggregator.Group> groups = result.top(0);
+        Assertions.assertEquals(2, groups.size());
+        Assertions.assertEquals("#1", groups.get(0).key);
+        Assertions.assertEquals(6, groups.get(0).total);
+        Assertions.assertEquals("#2", groups.get(1).key);
+        Assertions.assertEquals(2, groups.get(1).total);
+        for (String stack : groups.get(0).stacks.keySet()) {
+            Assertions.assertTrue(stack.endsWith("JfrSplitterTest.handleA;io.otel.pyroscope.splitter.JfrSplitterTest.sample"),
+                    stack);
+        }
+    }
+
+    @Test
+    void testBySpanWithUnlinked() throws IOException {
+        Path dir = Files.createTempDirectory("jfr-splitter-test-");
+        Path recording = twoChunkRecording(dir);
+        SplitterOptions options = SplitterOptions.parse(new String[]{
+                "--event", "test.SpanSample", "--include-unlinked", "--threads", "1", recording.toString()});
+        List<StackAggregator.Group> groups = new JfrSplitter(options, System.err).aggregate().top(0);
+
+        Assertions.assertEquals(3, groups.size());
+        Assertions.assertEquals("000000000000000a", groups.get(0).key);
+        Assertions.assertEquals(6, groups.get(0).total);
+        Assertions.assertEquals("#1", groups.get(0).label);
+        Assertions.assertTrue(groups.stream().anyMatch(g -> g.key.equals(RecordingReader.UNLINKED) && g.total == 1));
+    }
+
+    @Test
+    void testByTrace() throws IOException {
+        Path dir = Files.createTempDirectory("jfr-splitter-test-");
+        Path recording = twoChunkRecording(dir, 1);
+        SplitterOptions options = SplitterOptions.parse(new String[]{
+                "--event", "test.SpanSample", "--by", "trace", "--threads", "2", "--top", "0", recording.toString()});
+        JfrSplitter splitter = new JfrSplitter(options, System.err);
+        List<StackAggregator.Group> groups = splitter.aggregate().top(0);
+
+        Assertions.assertEquals(3, groups.size());
+        Assertions.assertEquals("0af7651916cd43dd8448eb211c80319c", groups.get(0).key);
+        Assertions.assertEquals(6, groups.get(0).total);
+        Assertions.assertEquals("0af7651916cd43dd8448eb211c80319d", groups.get(1).key);
+        Assertions.assertEquals(2, groups.get(1).total);
+        // Linked, but without a trace id: not reported as outside of spans.
+        Assertions.assertEquals(RecordingReader.NO_TRACE, groups.get(2).key);
+        Assertions.assertEquals(1, groups.get(2).total);
+    }
+
+    @Test
+    void testWallSamplesAreWeighted() throws IOException {
+        Path file = Files.createTempDirectory("jfr-splitter-test-").resolve("wall.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("test.WallSample").withStackTrace();
+            recording.start();
+            wallSample(0xa, NAME_A, 1);
+            wallSample(0xa, NAME_A, 5);
+            wallSample(0xb, NAME_B, 0);
+            recording.stop();
+            recording.dump(file);
+        }
+        SplitterOptions options = SplitterOptions.parse(new String[]{
+                "--event", "test.WallSample", "--by", "name", file.toString()});
+        List<StackAggregator.Group> groups = new JfrSplitter(options, System.err).aggregate().top(0);
+
+        Assertions.assertEquals(2, groups.size());
+        Assertions.assertEquals("#1", groups.get(0).key);
+        Assertions.assertEquals(6, groups.get(0).total);
+        Assertions.assertEquals("#2", groups.get(1).key);
+        Assertions.assertEquals(1, groups.get(1).total);
+    }
+
+    @Test
+    void testOptions() {
+        SplitterOptions options = SplitterOptions.parse(new String[]{"--event", "lock", "x.jfr"});
+        Assertions.assertEquals(Collections.singleton("jdk.JavaMonitorEnter"), options.events);
+        Assertions.assertEquals(Arrays.asList("traceIdHi", "traceIdLo"), options.traceIdFields);
+        options = SplitterOptions.parse(new String[]{"--trace-id-field", "traceId", "x.jfr"});
+        Assertions.assertEquals(Collections.singletonList("traceId"), options.traceIdFields);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> SplitterOptions.parse(new String[]{"--trace-id-field", "a,b,c", "x.jfr"}));
+    }
+
+    @Test
+    void testPprofOutput() throws IOException {
+        Path dir = Files.createTempDirectory("jfr-splitter-test-");
+        Path recording = twoChunkRecording(dir);
+        Path out = dir.resolve("out");
+        SplitterOptions options = SplitterOptions.parse(new String[]{
+                "--event", "test.SpanSample", "--by", "name", "--format", "pprof", "-o", out.toString(),
+                "--top", "1", recording.toString()});
+        new JfrSplitter(options, System.err).run(new ByteArrayOutputStream());
+
+        Path profile = out.resolve("001-_1.pb.gz");
+        Assertions.assertTrue(Files.exists(profile));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(profile))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            String content = new String(bytes.toByteArray(), "UTF-8");
+            Assertions.assertTrue(content.contains("io.otel.pyroscope.splitter.JfrSplitterTest.handleA"));
+            Assertions.assertTrue(content.contains("samples"));
+        }
+    }
+
+    @Test
+    void testPruneKeepsLargestGroups() {
+        StackAggregator aggregator = new StackAggregator(16);
+        for (int i = 0; i < 100; i++) {
+            aggregator.add("big", null, "main;work" + (i % 4), 10);
+        }
+        for (int i = 0; i < 100; i++) {
+            aggregator.add("small-" + i, null, "main;other", 1);
+        }
+        List<StackAggregator.Group> top = aggregator.top(1);
+        Assertions.assertEquals("big", top.get(0).key);
+        Assertions.assertEquals(1000, top.get(0).total);
+        Assertions.assertTrue(aggregator.groups() <= 16);
+        Assertions.assertTrue(aggregator.droppedValue() > 0);
+    }
+
+    @Test
+    void testPruneFoldsStacksOfSingleGroup() {
+        StackAggregator aggregator = new StackAggregator(16);
+        for (int i = 0; i < 100; i++) {
+            aggregator.add("only", null, "main;work" + i, i < 4 ? 100 : 1);
+        }
+        StackAggregator.Group g = aggregator.top(1).get(0);
+        Assertions.assertTrue(g.stacks.size() <= 16);
+        Assertions.assertEquals(496, g.total);
+        Assertions.assertEquals(100, g.stacks.get("main;work0")[0]);
+        Assertions.assertTrue(g.stacks.containsKey(StackAggregator.PRUNED));
+    }
+
+    private static Path twoChunkRecording(Path dir) throws IOException {
+        return twoChunkRecording(dir, 0);
+    }
+
+    private static Path twoChunkRecording(Path dir, int untraced) throws IOException {
+        Path first = dir.resolve("first.jfr");
+        Path second = dir.resolve("second.jfr");
+        record(first, 4, 1, 0, 0);
+        record(second, 2, 1, untraced, 1);
+        // A recording is a sequence of chunks, concatenated files are one recording.
+        Path combined = dir.resolve("combined.jfr");
+        try (OutputStream out = Files.newOutputStream(combined)) {
+            Files.copy(first, out);
+            Files.copy(second, out);
+        }
+        return combined;
+    }
+
+    private static void record(Path file, int a, int b, int untraced, int unlinked) throws IOException {
+        try (Recording recording = new Recording()) {
+            recording.enable("test.SpanSample").withStackTrace();
+            recording.start();
+            for (int i = 0; i < a; i++) {
+                handleA(0xa);
+            }
+            for (int i = 0; i < b; i++) {
+                handleB();
+            }
+            for (int i = 0; i < untraced; i++) {
+                sample(0xc, NAME_B, 0, 0);
+            }
+            for (int i = 0; i < unlinked; i++) {
+                sample(0, 0, 0, 0);
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+    }
+
+    private static void handleA(long spanId) {
+        sample(spanId, NAME_A, TRACE_HIGH, TRACE_A);
+    }
+
+    private static void handleB() {
+        sample(0x10, NAME_B, TRACE_HIGH, TRACE_B);
+    }
+
+    private static void sample(long spanId, long spanName, long traceIdHi, long traceIdLo) {
+        SpanSample event = new SpanSample();
+        event.spanId = spanId;
+        event.spanName = spanName;
+        event.traceIdHi = traceIdHi;
+        event.traceIdLo = traceIdLo;
+        event.commit();
+    }
+
+    private static void wallSample(long spanId, long spanName, int samples) {
+        WallSample event = new WallSample();
+        event.spanId = spanId;
+        event.spanName = spanName;
+        event.samples = samples;
+        event.commit();
+    }
+}
@@ -0,0 +1,220 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextStorage;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+import io.pyroscope.vendor.one.profiler.AsyncProfiler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Opt-in {@link ContextStorage} wrapper that keeps the profiler span context in sync with the span that is
+ * actually current on a thread. Every {@code makeCurrent()} sets the profiler context of the attached span
+ * and the returned {@link Scope} restores the previous one on close, so samples taken on executor threads,
+ * {@code CompletableFuture} chains and event loops get the span id of the request they are working on.
+ *
+ * OTel ignores wrappers added after its context storage was first used, so {@link #install()} has to be
+ * called early, before the SDK is built and before any {@code Context.current()} call:
+ * <pre>{@code
+ * public static void main(String[] args) {
+ *     PyroscopeContextStorage.install();
+ *     ...
+ * }
+ * }</pre>
+ * A {@link PyroscopeOtelSpanProcessor} created afterwards detects the wrapper and stops setting the
+ * profiler context on span start and end.
+ */
+public final class PyroscopeContextStorage implements ContextStorage {
+
+    private static final ThreadLocal<ThreadState> STATE = ThreadLocal.withInitial(ThreadState::new);
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private static volatile boolean requested = false;
+    private static volatile boolean installed = false;
+    private static volatile PyroscopeOtelSpanProcessor processor;
+
+    private final ContextStorage delegate;
+
+    private PyroscopeContextStorage(ContextStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    public static void install() {
+        requested = true;
+        ContextStorage.addWrapper(delegate -> {
+            installed = true;
+            return new PyroscopeContextStorage(delegate);
+        });
+    }
+
+    /**
+     * Returns true if {@link #install()} was called and the wrapper made it into the context storage chain.
+     */
+    static boolean isInstalled() {
+        if (!requested) {
+            return false;
+        }
+        ContextStorage.get();
+        return installed;
+    }
+
+    static void bind(PyroscopeOtelSpanProcessor spanProcessor) {
+        processor = spanProcessor;
+    }
+
+    @Override
+    public Scope attach(Context toAttach) {
+        Scope scope = delegate.attach(toAttach);
+        PyroscopeOtelSpanProcessor p = processor;
+        // The delegate returns the shared no-op scope when the context is already current: nothing to restore.
+        if (p == null || toAttach == null || scope == Scope.noop()) {
+            return scope;
+        }
+        ThreadState state = STATE.get();
+        Span span = Span.fromContextOrNull(toAttach);
+        if (!(span instanceof ReadableSpan)) {
+            // No local span (or only a propagated remote parent): nothing is running on behalf of a span.
+            span = null;
+        } else if (p.configuration.rootSpanOnly && !PyroscopeOtelSpanProcessor.isRootSpan((ReadableSpan) span)) {
+            // The library has no way to find the local root of a child span, keep the current label.
+            return scope;
+        }
+        if (span == state.span) {
+            return scope;
+        }
+        RestoringScope restoring = new RestoringScope(scope, state);
+        state.apply(p, span);
+        return restoring;
+    }
+
+    @Override
+    public Context current() {
+        return delegate.current();
+    }
+
+    @Override
+    public Context root() {
+        return delegate.root();
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Profiler context last written on a thread. Kept on the Java side so that re-attaching the same span,
+     * which is the common case for nested scopes, costs no native calls, and switching to another span of the
+     * same trace skips the trace id write.
+     */
+    private static final class ThreadState {
+        final Thread thread = Thread.currentThread();
+        // The profiler context of a virtual thread lives on whatever carrier it last ran on, which other
+        // virtual threads relabel; only platform threads can trust what they wrote.
+        final boolean trackTraceId = !isVirtual(thread);
+        Span span;
+        long spanId;
+        long spanName;
+        long traceIdHigh;
+        long traceIdLow;
+        boolean traceIdWritten;
+
+        void apply(PyroscopeOtelSpanProcessor p, Span span) {
+            if (span == null) {
+                set(p.asprof, null, 0, 0, 0, 0);
+                return;
+            }
+            ReadableSpan readable = (ReadableSpan) span;
+            SpanContext spanContext = readable.getSpanContext();
+            long id = PyroscopeOtelSpanProcessor.parseSpanId(spanContext.getSpanId());
+            long name = p.configuration.addSpanName ? p.spanNameId(readable.getName()) : 0;
+            String traceId = spanContext.getTraceId();
+            long high;
+            long low;
+            try {
+                high = PyroscopeOtelSpanProcessor.parseHex64(traceId, 0);
+                low = PyroscopeOtelSpanProcessor.parseHex64(traceId, 16);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                high = 0;
+                low = 0;
+            }
+            set(p.asprof, span, id, name, high, low);
+        }
+
+        void set(AsyncProfiler asprof, Span span, long spanId, long spanName, long traceIdHigh, long traceIdLow) {
+            boolean sameTrace = traceIdWritten && this.traceIdHigh == traceIdHigh && this.traceIdLow == traceIdLow;
+            this.span = span;
+            this.spanId = spanId;
+            this.spanName = spanName;
+            this.traceIdHigh = traceIdHigh;
+            this.traceIdLow = traceIdLow;
+            asprof.setTracingContext(spanId, spanName);
+            if (!sameTrace) {
+                asprof.setTraceId(traceIdHigh, traceIdLow);
+                traceIdWritten = trackTraceId;
+            }
+        }
+    }
+
+    private static final class RestoringScope implements Scope {
+        private final Scope delegate;
+        private final ThreadState state;
+        // Cleared on close so a scope kept around by the caller does not keep the span reachable.
+        private Span span;
+        private final long spanId;
+        private final long spanName;
+        private final long traceIdHigh;
+        private final long traceIdLow;
+        private boolean closed;
+
+        RestoringScope(Scope delegate, ThreadState state) {
+            this.delegate = delegate;
+            this.state = state;
+            this.span = state.span;
+            this.spanId = state.spanId;
+            this.spanName = state.spanName;
+            this.traceIdHigh = state.traceIdHigh;
+            this.traceIdLow = state.traceIdLow;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Span previous = span;
+            span = null;
+            // A scope closed on another thread is a bug in the caller; do not label the wrong thread.
+            PyroscopeOtelSpanProcessor p = processor;
+            if (state.thread != Thread.currentThread() || p == null) {
+                return;
+            }
+            state.set(p.asprof, previous, spanId, spanName, traceIdHigh, traceIdLow);
+        }
+    }
+}
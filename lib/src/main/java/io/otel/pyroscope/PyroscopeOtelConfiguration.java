@@ -1,5 +1,7 @@
 package io.otel.pyroscope;
 
+import java.util.List;
+
 
 public class PyroscopeOtelConfiguration {
     /** @deprecated This field is no longer used. */
@@ -8,10 +10,16 @@ public class PyroscopeOtelConfiguration {
     /** @deprecated This field is no longer used. */
     @Deprecated
     final boolean addSpanName;
+    final int maxSpanNames;
+    final String spanNameOverflow;
+    final int spanNameNormalization;
 
     private PyroscopeOtelConfiguration(Builder builder) {
         this.rootSpanOnly = builder.rootSpanOnly;
         this.addSpanName = builder.addSpanName;
+        this.maxSpanNames = builder.maxSpanNames;
+        this.spanNameOverflow = builder.spanNameOverflow;
+        this.spanNameNormalization = builder.spanNameNormalization;
     }
 
     @Override
@@ -19,12 +27,18 @@ public class PyroscopeOtelConfiguration {
         return "PyroscopeOtelConfiguration{" +
                 ", rootSpanOnly=" + rootSpanOnly +
                 ", addSpanName=" + addSpanName +
+                ", maxSpanNames=" + maxSpanNames +
+                ", spanNameOverflow=" + spanNameOverflow +
+                ", spanNameNormalization=" + spanNameNormalization +
                 '}';
     }
 
     public static class Builder {
         boolean rootSpanOnly = true;
         boolean addSpanName = true;
+        int maxSpanNames = 1024;
+        String spanNameOverflow = "other";
+        int spanNameNormalization = 0;
 
         public Builder() {
         }
@@ -43,6 +57,31 @@ public class PyroscopeOtelConfiguration {
             return this;
         }
 
+        /**
+         * Maximum number of distinct span names registered as profiler constants. Names seen after the limit is
+         * reached are labeled with the overflow name.
+         */
+        public Builder setMaxSpanNames(int maxSpanNames) {
+            this.maxSpanNames = Math.max(1, Math.min(maxSpanNames, 1 << 20));
+            return this;
+        }
+
+        public Builder setSpanNameOverflow(String spanNameOverflow) {
+            this.spanNameOverflow = spanNameOverflow;
+            return this;
+        }
+
+        /**
+         * Normalization rules applied to span names before they are registered: {@code numeric} collapses
+         * numeric path segments and {@code hex} collapses hex and UUID-like path segments into {@code {id}}.
+         *
+         * @throws IllegalArgumentException if a rule is unknown
+         */
+        public Builder setSpanNameNormalization(List<String> rules) {
+            this.spanNameNormalization = SpanNameCache.parseRules(rules);
+            return this;
+        }
+
         public PyroscopeOtelConfiguration build() {
             return new PyroscopeOtelConfiguration(this);
         }
@@ -8,7 +8,6 @@ import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 
 import io.pyroscope.PyroscopeAsyncProfiler;
-import io.pyroscope.labels.v2.Pyroscope;
 import io.pyroscope.vendor.one.profiler.AsyncProfiler;
 
 
@@ -21,8 +20,11 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
 
     private static final AttributeKey<String> ATTRIBUTE_KEY_PROFILE_ID = AttributeKey.stringKey("pyroscope.profile.id");
 
-    private final PyroscopeOtelConfiguration configuration;
-    private final AsyncProfiler asprof;
+    final PyroscopeOtelConfiguration configuration;
+    final AsyncProfiler asprof;
+    private final boolean contextStorage;
+    private final SpanNameCache spanNames;
+    private final ThreadLocal<WrittenTraceId> traceIds = ThreadLocal.withInitial(WrittenTraceId::new);
 
     public PyroscopeOtelSpanProcessor() {
         this(new PyroscopeOtelConfiguration.Builder().build());
@@ -33,8 +35,18 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
      */
     @Deprecated
     public PyroscopeOtelSpanProcessor(PyroscopeOtelConfiguration configuration) {
+        this(configuration, PyroscopeAsyncProfiler.getAsyncProfiler());
+    }
+
+    PyroscopeOtelSpanProcessor(PyroscopeOtelConfiguration configuration, AsyncProfiler asprof) {
         this.configuration = configuration;
-        this.asprof = PyroscopeAsyncProfiler.getAsyncProfiler();
+        this.asprof = asprof;
+        this.spanNames = new SpanNameCache(configuration.maxSpanNames, configuration.spanNameOverflow,
+                configuration.spanNameNormalization);
+        this.contextStorage = PyroscopeContextStorage.isInstalled();
+        if (contextStorage) {
+            PyroscopeContextStorage.bind(this);
+        }
     }
 
     @Override
@@ -53,10 +65,15 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
             return;
         }
         String strProfileId = span.getSpanContext().getSpanId();
+        if (contextStorage) {
+            // PyroscopeContextStorage sets the profiler context when the span is made current.
+            span.setAttribute(ATTRIBUTE_KEY_PROFILE_ID, strProfileId);
+            return;
+        }
         long spanId = parseSpanId(strProfileId);
         long spanName;
         if (configuration.addSpanName) {
-            spanName = Pyroscope.LabelsWrapper.registerConstant(span.getName());
+            spanName = spanNames.id(span.getName());
         } else {
             spanName = 0;
         }
@@ -66,20 +83,50 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
         // W3C trace ID is 32 hex chars (128 bits). Parse directly into two longs
         // to avoid the String#substring allocations on this hot path.
         String traceId = span.getSpanContext().getTraceId();
+        long traceIdHigh;
+        long traceIdLow;
         try {
-            asprof.setTraceId(parseHex64(traceId, 0), parseHex64(traceId, 16));
+            traceIdHigh = parseHex64(traceId, 0);
+            traceIdLow = parseHex64(traceId, 16);
         } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            asprof.setTraceId(0, 0);
+            traceIdHigh = 0;
+            traceIdLow = 0;
+        }
+        WrittenTraceId written = traceIds.get();
+        if (written.matches(traceIdHigh, traceIdLow)) {
+            // Another span of the trace is already open on this thread: the trace id is in place.
+            written.openSpans++;
+            return;
         }
+        asprof.setTraceId(traceIdHigh, traceIdLow);
+        written.set(traceIdHigh, traceIdLow);
     }
 
     @Override
     public void onEnd(ReadableSpan span) {
+        if (contextStorage) {
+            return;
+        }
         if (configuration.rootSpanOnly && !isRootSpan(span)) {
             return;
         }
         asprof.setTracingContext(0, 0);
+        WrittenTraceId written = traceIds.get();
+        String traceId = span.getSpanContext().getTraceId();
+        try {
+            if (written.matches(parseHex64(traceId, 0), parseHex64(traceId, 16)) && --written.openSpans > 0) {
+                // The span was nested in another open span of the same trace, which still owns the trace id.
+                return;
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // Never written as such, clear below.
+        }
         asprof.setTraceId(0L, 0L);
+        written.clear();
+    }
+
+    long spanNameId(String name) {
+        return spanNames.id(name);
     }
 
     public static long parseSpanId(String strProfileId) {
@@ -112,6 +159,37 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
         return result;
     }
 
+    /**
+     * Trace id last written to the profiler on a thread and the number of spans of that trace started on the
+     * thread and not yet ended there, so that nested spans of one trace cost no trace id writes. A span that
+     * ends on another thread clears the trace id of that thread, as it always did.
+     */
+    private static final class WrittenTraceId {
+        // The profiler context of a virtual thread lives on whatever carrier it last ran on, which other
+        // virtual threads relabel; only platform threads can trust what they wrote.
+        final boolean track = !PyroscopeContextStorage.isVirtual(Thread.currentThread());
+        boolean written;
+        long traceIdHigh;
+        long traceIdLow;
+        int openSpans;
+
+        boolean matches(long traceIdHigh, long traceIdLow) {
+            return written && this.traceIdHigh == traceIdHigh && this.traceIdLow == traceIdLow;
+        }
+
+        void set(long traceIdHigh, long traceIdLow) {
+            this.written = track;
+            this.traceIdHigh = traceIdHigh;
+            this.traceIdLow = traceIdLow;
+            this.openSpans = 1;
+        }
+
+        void clear() {
+            written = false;
+            openSpans = 0;
+        }
+    }
+
     public static boolean isRootSpan(ReadableSpan span) {
         SpanContext parent = span.getParentSpanContext();
         boolean noParent = parent == SpanContext.getInvalid();
@@ -0,0 +1,294 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.labels.v2.Pyroscope;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Span name to profiler constant id cache in front of {@link Pyroscope.LabelsWrapper#registerConstant(String)}.
+ *
+ * Open-addressing tables of names and primitive ids: a hit is a few array reads with no lock and no
+ * allocation. A raw name that normalizes to another one is cached as an alias of the normalized name's id, so
+ * it is only normalized the first time it is seen. Both tables hold at most {@code maxNames} names; once the
+ * names are full, new names are reported as the overflow constant, which bounds the profiler's constant
+ * dictionary, and once the aliases are full, new raw names are normalized (and allocate) on every lookup.
+ */
+final class SpanNameCache {
+
+    /** Collapse path segments made only of digits, {@code /users/123} becomes {@code /users/{id}}. */
+    static final int NORMALIZE_NUMERIC = 1;
+    /** Collapse hex and UUID-like path segments (8+ chars, at least one digit) into {@code {id}}. */
+    static final int NORMALIZE_HEX = 2;
+
+    private static final String ID_PLACEHOLDER = "{id}";
+
+    private final int maxNames;
+    private final String overflowName;
+    private final int normalization;
+
+    private final Table table;
+
+    SpanNameCache(int maxNames, String overflowName, int normalization) {
+        this.maxNames = Math.max(1, maxNames);
+        this.overflowName = overflowName;
+        this.normalization = normalization;
+        this.table = new Table(this.maxNames);
+    }
+
+    long id(String name) {
+        if (name == null) {
+            return 0;
+        }
+        return table.id(name);
+    }
+
+    int size() {
+        return table.names.size.get();
+    }
+
+    static int parseRules(Collection<String> rules) {
+        int flags = 0;
+        for (String rule : rules) {
+            String r = rule.trim().toLowerCase(Locale.ROOT);
+            if (r.equals("numeric")) {
+                flags |= NORMALIZE_NUMERIC;
+            } else if (r.equals("hex")) {
+                flags |= NORMALIZE_HEX;
+            } else if (!r.isEmpty()) {
+                throw new IllegalArgumentException("unknown span name normalization rule: " + rule);
+            }
+        }
+        return flags;
+    }
+
+    static String normalize(String name, int rules) {
+        if (rules == 0 || name.indexOf('/') < 0) {
+            return name;
+        }
+        StringBuilder sb = null;
+        int segmentStart = 0;
+        int n = name.length();
+        for (int i = 0; i <= n; i++) {
+            if (i < n && !isSegmentEnd(name.charAt(i))) {
+                continue;
+            }
+            if (i > segmentStart && segmentStart > 0 && name.charAt(segmentStart - 1) == '/'
+                    && isIdSegment(name, segmentStart, i, rules)) {
+                if (sb == null) {
+                    sb = new StringBuilder(n);
+                    sb.append(name, 0, segmentStart);
+                }
+                sb.append(ID_PLACEHOLDER);
+            } else if (sb != null) {
+                sb.append(name, segmentStart, i);
+            }
+            if (i < n && sb != null) {
+                sb.append(name.charAt(i));
+            }
+            segmentStart = i + 1;
+        }
+        return sb == null ? name : sb.toString();
+    }
+
+    private static boolean isSegmentEnd(char c) {
+        return c == '/' || c == '?' || c == ' ' || c == '#';
+    }
+
+    private static boolean isIdSegment(String s, int from, int to, int rules) {
+        boolean allDigits = true;
+        boolean allHex = true;
+        boolean hasDigit = false;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            hasDigit |= digit;
+            allDigits &= digit;
+            allHex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+        }
+        if ((rules & NORMALIZE_NUMERIC) != 0 && allDigits) {
+            return true;
+        }
+        return (rules & NORMALIZE_HEX) != 0 && allHex && hasDigit && to - from >= 8;
+    }
+
+    private final class Table {
+        // Normalized names and their constant ids, at most maxNames of them.
+        final Slots names;
+        // Raw names that normalize to something else, mapped to the id of their normalized name. Bounded by the
+        // same cap, so a high-cardinality route fills it once and its later names are normalized on every lookup.
+        final Slots aliases;
+        volatile long overflowId;
+
+        Table(int maxNames) {
+            this.names = new Slots(maxNames);
+            this.aliases = new Slots(maxNames);
+        }
+
+        long id(String name) {
+            long id = lookup(name);
+            return id == Slots.NO_ID ? 0 : id;
+        }
+
+        private long lookup(String name) {
+            long id = names.find(name);
+            if (id != 0) {
+                return id;
+            }
+            id = aliases.find(name);
+            if (id != 0) {
+                return id;
+            }
+            String normalized = normalize(name, normalization);
+            if (normalized == name) {
+                return insert(name);
+            }
+            id = names.find(normalized);
+            if (id == 0) {
+                id = insert(normalized);
+            }
+            aliases.put(name, id);
+            return id;
+        }
+
+        private long insert(String name) {
+            int i = names.claim(name);
+            if (i == Slots.FULL) {
+                return overflow();
+            }
+            if (i < 0) {
+                // Another thread inserted the name first; use its id rather than registering it twice.
+                return names.await(Slots.existing(i));
+            }
+            long id = 0;
+            try {
+                id = register(name);
+                if (id == 0) {
+                    id = overflow();
+                }
+            } finally {
+                // Never leave a claimed slot without an id: every later lookup of the name would wait for it.
+                names.publish(i, id == 0 ? Slots.NO_ID : id);
+            }
+            return id;
+        }
+
+        private long overflow() {
+            long id = overflowId;
+            if (id == 0) {
+                id = register(overflowName);
+                overflowId = id;
+            }
+            return id;
+        }
+
+        private long register(String name) {
+            return Pyroscope.LabelsWrapper.registerConstant(name);
+        }
+    }
+
+    /**
+     * Open-addressing table of names and primitive ids. A name is claimed with a CAS and its id published
+     * afterwards, so readers treat an id of zero as absent.
+     */
+    private static final class Slots {
+        static final int FULL = -1;
+        /** Published for a name whose registration failed, so lookups stop waiting for it. */
+        static final long NO_ID = -1L;
+
+        final AtomicReferenceArray<String> names;
+        final AtomicLongArray ids;
+        final AtomicInteger size = new AtomicInteger();
+        final int maxSize;
+        final int mask;
+
+        Slots(int maxSize) {
+            int capacity = Integer.highestOneBit(Math.max(2, maxSize) * 2 - 1) << 1;
+            this.names = new AtomicReferenceArray<>(capacity);
+            this.ids = new AtomicLongArray(capacity);
+            this.maxSize = maxSize;
+            this.mask = capacity - 1;
+        }
+
+        static int existing(int claimed) {
+            return -claimed - 2;
+        }
+
+        long find(String name) {
+            int h = name.hashCode();
+            int start = (h ^ (h >>> 16)) & mask;
+            int i = start;
+            do {
+                String key = names.get(i);
+                if (key == null) {
+                    return 0;
+                }
+                if (key.equals(name)) {
+                    return ids.get(i);
+                }
+                i = (i + 1) & mask;
+            } while (i != start);
+            return 0;
+        }
+
+        /**
+         * Returns the slot claimed for {@code name}, {@link #FULL}, or the encoded slot of a thread that claimed
+         * it first (see {@link #existing(int)}).
+         */
+        int claim(String name) {
+            int h = name.hashCode();
+            int start = (h ^ (h >>> 16)) & mask;
+            int i = start;
+            do {
+                String key = names.get(i);
+                if (key == null) {
+                    if (size.get() >= maxSize) {
+                        return FULL;
+                    }
+                    if (names.compareAndSet(i, null, name)) {
+                        size.incrementAndGet();
+                        return i;
+                    }
+                    key = names.get(i);
+                }
+                if (key.equals(name)) {
+                    return -i - 2;
+                }
+                i = (i + 1) & mask;
+            } while (i != start);
+            return FULL;
+        }
+
+        void publish(int i, long id) {
+            ids.set(i, id);
+        }
+
+        /**
+         * Waits for the id of a slot another thread claimed. Registering a constant is short, so this rarely
+         * spins; if it takes too long the span goes without a name rather than registering the name again.
+         */
+        long await(int i) {
+            for (int spins = 0; spins < 1000; spins++) {
+                long id = ids.get(i);
+                if (id != 0) {
+                    return id;
+                }
+                Thread.yield();
+            }
+            return 0;
+        }
+
+        void put(String name, long id) {
+            if (id == 0) {
+                return;
+            }
+            int i = claim(name);
+            if (i >= 0) {
+                publish(i, id);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.pyroscope.vendor.one.profiler.AsyncProfiler;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class PyroscopeOtelSpanProcessorTest {
+
+    private static final String TRACE_ID = "0af7651916cd43dd8448eb211c80319c";
+    private static final String OTHER_TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    @Test
+    void testSameTraceWritesTraceIdOnce() {
+        AsyncProfiler asprof = Mockito.mock(AsyncProfiler.class);
+        PyroscopeOtelSpanProcessor processor = processor(asprof);
+        ReadWriteSpan root = span(TRACE_ID, "00000000000000aa", SpanContext.getInvalid());
+        ReadWriteSpan child = span(TRACE_ID, "00000000000000bb", root.getSpanContext());
+
+        processor.onStart(Context.root(), root);
+        processor.onStart(Context.root(), child);
+        processor.onEnd(child);
+        processor.onEnd(root);
+
+        InOrder inOrder = Mockito.inOrder(asprof);
+        inOrder.verify(asprof).setTracingContext(0xaaL, 0L);
+        inOrder.verify(asprof).setTraceId(0x0af7651916cd43ddL, 0x8448eb211c80319cL);
+        inOrder.verify(asprof).setTracingContext(0xbbL, 0L);
+        inOrder.verify(asprof, Mockito.times(2)).setTracingContext(0L, 0L);
+        inOrder.verify(asprof).setTraceId(0L, 0L);
+        Mockito.verifyNoMoreInteractions(asprof);
+    }
+
+    @Test
+    void testOtherTraceWritesTraceId() {
+        AsyncProfiler asprof = Mockito.mock(AsyncProfiler.class);
+        PyroscopeOtelSpanProcessor processor = processor(asprof);
+        ReadWriteSpan first = span(TRACE_ID, "00000000000000aa", SpanContext.getInvalid());
+        ReadWriteSpan second = span(OTHER_TRACE_ID, "00000000000000bb", SpanContext.getInvalid());
+
+        processor.onStart(Context.root(), first);
+        processor.onEnd(first);
+        processor.onStart(Context.root(), second);
+        processor.onEnd(second);
+
+        InOrder inOrder = Mockito.inOrder(asprof);
+        inOrder.verify(asprof).setTraceId(0x0af7651916cd43ddL, 0x8448eb211c80319cL);
+        inOrder.verify(asprof).setTraceId(0L, 0L);
+        inOrder.verify(asprof).setTraceId(0x4bf92f3577b34da6L, 0xa3ce929d0e0e4736L);
+        inOrder.verify(asprof).setTraceId(0L, 0L);
+    }
+
+    @Test
+    void testSpanEndedOnAnotherThreadClearsThatThread() throws InterruptedException {
+        AsyncProfiler asprof = Mockito.mock(AsyncProfiler.class);
+        PyroscopeOtelSpanProcessor processor = processor(asprof);
+        ReadWriteSpan root = span(TRACE_ID, "00000000000000aa", SpanContext.getInvalid());
+        ReadWriteSpan child = span(TRACE_ID, "00000000000000bb", root.getSpanContext());
+
+        processor.onStart(Context.root(), root);
+        Thread thread = new Thread(() -> processor.onEnd(child));
+        thread.start();
+        thread.join();
+        Mockito.verify(asprof).setTraceId(0L, 0L);
+
+        // The root still owns the trace id of this thread.
+        processor.onStart(Context.root(), child);
+        Mockito.verify(asprof, Mockito.times(1)).setTraceId(0x0af7651916cd43ddL, 0x8448eb211c80319cL);
+    }
+
+    private static PyroscopeOtelSpanProcessor processor(AsyncProfiler asprof) {
+        return new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(false)
+                .setAddSpanName(false)
+                .build(), asprof);
+    }
+
+    private static ReadWriteSpan span(String traceId, String spanId, SpanContext parent) {
+        ReadWriteSpan span = Mockito.mock(ReadWriteSpan.class);
+        Mockito.when(span.getSpanContext()).thenReturn(
+                SpanContext.create(traceId, spanId, TraceFlags.getSampled(), TraceState.getDefault()));
+        Mockito.when(span.getParentSpanContext()).thenReturn(parent);
+        return span;
+    }
+}
@@ -0,0 +1,73 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.ProfilerSdkFactory;
+import io.pyroscope.javaagent.api.Logger;
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerApiHolder;
+import io.pyroscope.javaagent.impl.DefaultLogger;
+import io.pyroscope.vendor.one.profiler.AsyncProfiler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adds boosted threads to async-profiler's thread filter. The filter only has an effect when the profiler runs
+ * with thread filtering on (the {@code filter} option, combined with a wall-clock event), which the customizer
+ * adds to the profiler arguments through {@link SpanWallClock#configureProfiler} for every option that uses it.
+ *
+ * {@code ProfilerApi} has no per-thread controls, so this only works when the active profiler is the one bundled
+ * with the extension; otherwise {@link #start(Thread)} declines and logs a warning once.
+ *
+ * One instance is shared by the latency boost, the baggage boost and {@link SpanWallClock}, which may add the same
+ * thread at the same time: boosts are counted per thread and the filter is only changed by the first start and
+ * the last stop.
+ */
+final class AsyncProfilerThreadBoost implements ProfilingBoost {
+
+    private final ConcurrentHashMap<Thread, Integer> boosts = new ConcurrentHashMap<>();
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    /**
+     * Returns true if threads can be added to the filter of {@code api}'s profiler.
+     */
+    static boolean isSupported(ProfilerApi api) {
+        return ProfilerSdkFactory.asyncProfiler(api) != null;
+    }
+
+    @Override
+    public boolean start(Thread thread) {
+        ProfilerApi api = ProfilerApiHolder.INSTANCE.get();
+        AsyncProfiler asprof = ProfilerSdkFactory.asyncProfiler(api);
+        if (asprof == null) {
+            if (api != null && warned.compareAndSet(false, true)) {
+                DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN, "The profiler " + api.getClass().getName()
+                        + " is not the one bundled with the OTel extension; boosts and span wall-clock profiling "
+                        + "have no effect.");
+            }
+            return false;
+        }
+        // compute() runs under the entry's lock, so a concurrent stop cannot remove the thread after we add it.
+        boosts.compute(thread, (t, n) -> {
+            if (n == null) {
+                asprof.addThread(t);
+                return 1;
+            }
+            return n + 1;
+        });
+        return true;
+    }
+
+    @Override
+    public void stop(Thread thread) {
+        boosts.computeIfPresent(thread, (t, n) -> {
+            if (n > 1) {
+                return n - 1;
+            }
+            AsyncProfiler asprof = ProfilerSdkFactory.asyncProfiler(ProfilerApiHolder.INSTANCE.get());
+            if (asprof != null) {
+                asprof.removeThread(t);
+            }
+            return null;
+        });
+    }
+}
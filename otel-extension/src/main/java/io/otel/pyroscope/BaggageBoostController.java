@@ -0,0 +1,121 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Boosts profiling of a thread while it runs a span whose parent context carries a marker baggage entry, e.g.
+ * {@code pyroscope.profile=high}. Baggage travels with the request, so marking one request boosts it in every
+ * service it reaches that has this option on.
+ *
+ * The boost belongs to the thread the marked span started on and lasts until that span ends, on whatever thread
+ * it ends; spans started on the boosted thread in the meantime are covered by it. At most {@code maxConcurrent}
+ * threads are boosted at a time and at most {@code maxPerSecond} boosts are started per second, whatever callers
+ * put in their baggage. Spans without baggage cost one context lookup, spans with baggage one entry lookup.
+ */
+final class BaggageBoostController {
+
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final String key;
+    private final String value;
+    private final int maxConcurrent;
+    private final int maxPerSecond;
+    private final ProfilingBoost boost;
+
+    // Only boosted spans and threads are in the maps, so they hold at most maxConcurrent entries.
+    private final ConcurrentHashMap<ReadableSpan, Thread> spans = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Thread, ReadableSpan> threads = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    // Guarded by this. Only marked spans get here, so the lock is off the common path.
+    private long windowStart;
+    private int windowBoosts;
+
+    BaggageBoostController(String key, String value, int maxConcurrent, int maxPerSecond, ProfilingBoost boost) {
+        this.key = key;
+        this.value = value;
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerSecond = maxPerSecond;
+        this.boost = boost;
+    }
+
+    void onStart(Context parentContext, ReadableSpan span) {
+        Baggage baggage = Baggage.fromContextOrNull(parentContext);
+        if (baggage == null) {
+            return;
+        }
+        if (value.equals(baggage.getEntryValue(key))) {
+            onMarkedStart(span, System.nanoTime());
+        }
+    }
+
+    /**
+     * Boosts the current thread for a span that carries the marker. Package-private so tests can drive the
+     * controller with their own clock.
+     */
+    boolean onMarkedStart(ReadableSpan span, long now) {
+        Thread t = Thread.currentThread();
+        if (threads.containsKey(t)) {
+            // Already boosted, typically by the marked span's parent.
+            return false;
+        }
+        if (active.incrementAndGet() > maxConcurrent) {
+            active.decrementAndGet();
+            return false;
+        }
+        if (!hasBudget(now) || !boost.start(t)) {
+            active.decrementAndGet();
+            return false;
+        }
+        threads.put(t, span);
+        spans.put(span, t);
+        return true;
+    }
+
+    void onEnd(ReadableSpan span) {
+        if (active.get() == 0) {
+            return;
+        }
+        Thread t = spans.remove(span);
+        if (t != null) {
+            stop(t, span);
+        }
+    }
+
+    void close() {
+        for (Iterator<Map.Entry<ReadableSpan, Thread>> it = spans.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<ReadableSpan, Thread> e = it.next();
+            it.remove();
+            stop(e.getValue(), e.getKey());
+        }
+    }
+
+    int activeBoosts() {
+        return active.get();
+    }
+
+    private void stop(Thread t, ReadableSpan span) {
+        threads.remove(t, span);
+        boost.stop(t);
+        active.decrementAndGet();
+    }
+
+    private synchronized boolean hasBudget(long now) {
+        if (now - windowStart >= SECOND_NANOS) {
+            windowStart = now;
+            windowBoosts = 0;
+        }
+        if (windowBoosts >= maxPerSecond) {
+            return false;
+        }
+        windowBoosts++;
+        return true;
+    }
+}
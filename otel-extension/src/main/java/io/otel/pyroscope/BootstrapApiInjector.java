@@ -2,12 +2,14 @@ package io.otel.pyroscope;
 
 import io.opentelemetry.javaagent.bootstrap.InstrumentationHolder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.Instrumentation;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Paths;
+import java.util.Locale;
 import java.util.jar.JarFile;
 
 /**
@@ -17,9 +19,15 @@ import java.util.jar.JarFile;
  *
  * A very similar injector exists in pyroscope-java agent's premain:
  * {@code io.pyroscope.javaagent.BootstrapApiInjector} in the pyroscope-java repository.
+ *
+ * The jar is kept in a {@link BootstrapJarCache} ({@value #CACHE_DIR_PROPERTY}, a per-user directory under
+ * {@code java.io.tmpdir} by default) so that restarts reuse it instead of leaving a temp file behind each time.
+ * An empty value turns the cache off.
  */
 class BootstrapApiInjector {
 
+    static final String CACHE_DIR_PROPERTY = "otel.pyroscope.bootstrap.cache.dir";
+
     private static volatile boolean injected = false;
 
     static void ensureInjected() {
@@ -47,21 +55,64 @@ class BootstrapApiInjector {
             // This resource originates from the pyroscope agent dependency and contains
             // the 3 API classes (ProfilerApi, ProfilerApiHolder, ProfilerScopedContext).
             // Resource uses .bin extension to prevent the shadow jar plugin from merging it.
-            try (InputStream is = BootstrapApiInjector.class.getResourceAsStream("/pyroscope-bootstrap.jar.bin")) {
-                if (is == null) {
-                    PyroscopeOtelDebug.log("BootstrapApiInjector: pyroscope-bootstrap.jar.bin not found in resources, skipping");
-                    return;
-                }
-                Path tempJar = Files.createTempFile("pyroscope-bootstrap-", ".jar");
-                tempJar.toFile().deleteOnExit();
-                Files.copy(is, tempJar, StandardCopyOption.REPLACE_EXISTING);
-
-                instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(tempJar.toFile()));
-                PyroscopeOtelDebug.log("BootstrapApiInjector: Injected API classes into bootstrap classloader");
+            byte[] content = readBootstrapJar();
+            if (content == null) {
+                PyroscopeOtelDebug.log("BootstrapApiInjector: pyroscope-bootstrap.jar.bin not found in resources, skipping");
+                return;
             }
+            Path jar = extract(content);
+            instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(jar.toFile()));
+            PyroscopeOtelDebug.log("BootstrapApiInjector: Injected API classes into bootstrap classloader from " + jar);
         } catch (IOException e) {
             PyroscopeOtelDebug.log("BootstrapApiInjector: Failed to inject: " + e.getMessage(), e);
         }
     }
 
+    static byte[] readBootstrapJar() throws IOException {
+        try (InputStream is = BootstrapApiInjector.class.getResourceAsStream("/pyroscope-bootstrap.jar.bin")) {
+            if (is == null) {
+                return null;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Returns a jar file with the bootstrap classes: the entry of the content-addressed cache, or a fresh temp file
+     * if the cache is disabled or unusable.
+     */
+    static Path extract(byte[] content) throws IOException {
+        return extract(content, "pyroscope-bootstrap-");
+    }
+
+    static Path extract(byte[] content, String prefix) throws IOException {
+        String dir = property(CACHE_DIR_PROPERTY);
+        if (dir == null || !dir.isEmpty()) {
+            Path cacheDir = dir == null ? BootstrapJarCache.defaultDirectory() : Paths.get(dir);
+            try {
+                return new BootstrapJarCache(cacheDir).extract(content, prefix);
+            } catch (IOException | RuntimeException e) {
+                PyroscopeOtelDebug.log("BootstrapApiInjector: cache " + cacheDir + " unusable, using a temp file", e);
+            }
+        }
+        Path tempJar = Files.createTempFile(prefix, ".jar");
+        tempJar.toFile().deleteOnExit();
+        Files.write(tempJar, content);
+        return tempJar;
+    }
+
+    // Read before the OTel configuration exists: the injection runs first thing in customize().
+    private static String property(String name) {
+        String v = System.getProperty(name);
+        if (v == null) {
+            v = System.getenv(name.toUpperCase(Locale.ROOT).replace('.', '_'));
+        }
+        return v;
+    }
 }
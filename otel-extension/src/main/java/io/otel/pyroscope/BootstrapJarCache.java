@@ -0,0 +1,203 @@
+package io.otel.pyroscope;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Content-addressed cache for files the extension has to extract from its jar before use. A file is stored as
+ * {@code <prefix><sha-256>.jar} and reused by later JVMs as long as its bytes are the content's. The digest only
+ * names the file: a warm start hashes the content once and compares the cached file with it byte for byte.
+ *
+ * Concurrent starts are serialized with a lock file in the cache directory; the file is written to a temp file
+ * next to it and renamed into place atomically, so readers never see a partial file. Temp files left behind by a
+ * JVM that died before the rename are deleted by the next one that takes the lock. The JVM re-opens cached jars
+ * by path, so the directory must not be writable by anyone else: it is created owner-only and rejected if it is
+ * group or world writable.
+ */
+final class BootstrapJarCache {
+
+    private static final String LOCK_FILE = ".lock";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String OWNER_PROBE_PREFIX = ".owner-";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path dir;
+
+    BootstrapJarCache(Path dir) {
+        this.dir = dir;
+    }
+
+    static Path defaultDirectory() {
+        String user = System.getProperty("user.name", "unknown").replaceAll("[^A-Za-z0-9_.-]", "_");
+        return Paths.get(System.getProperty("java.io.tmpdir"), "pyroscope-otel-" + user);
+    }
+
+    /**
+     * Returns the cached file holding {@code content}, extracting it first if it is missing or corrupt.
+     */
+    Path extract(byte[] content, String prefix) throws IOException {
+        Path target = dir.resolve(prefix + hex(sha256(content)) + ".jar");
+        prepareDirectory();
+        if (matches(target, content)) {
+            return target;
+        }
+        try (FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Released when the channel is closed.
+            lockChannel.lock();
+            // Another JVM may have extracted it while we waited for the lock.
+            if (matches(target, content)) {
+                return target;
+            }
+            deleteStaleTempFiles();
+            Path tmp = Files.createTempFile(dir, prefix, TEMP_SUFFIX);
+            try {
+                try (OutputStream os = Files.newOutputStream(tmp, StandardOpenOption.WRITE)) {
+                    os.write(content);
+                }
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        if (!matches(target, content)) {
+            throw new IOException("extracted file failed verification: " + target);
+        }
+        return target;
+    }
+
+    private void prepareDirectory() throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(dir.getParent() == null ? dir : dir.getParent(),
+                PosixFileAttributeView.class);
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            try {
+                if (posix != null) {
+                    FileAttribute<Set<PosixFilePermission>> ownerOnly =
+                            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
+                    Files.createDirectories(dir, ownerOnly);
+                } else {
+                    Files.createDirectories(dir);
+                }
+            } catch (FileAlreadyExistsException e) {
+                // created concurrently, checked below
+            }
+        }
+        if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("not a directory: " + dir);
+        }
+        if (posix != null) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS);
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                    || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                throw new IOException("cache directory is writable by other users: " + dir);
+            }
+            UserPrincipal owner = Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS);
+            if (!owner.equals(currentUser())) {
+                throw new IOException("cache directory is owned by " + owner.getName() + ": " + dir);
+            }
+        }
+    }
+
+    /**
+     * The owner of a file this process creates. {@code user.name} cannot be used: a container running with an
+     * arbitrary uid and no passwd entry has {@code ?} there, and a numeric owner.
+     */
+    private UserPrincipal currentUser() throws IOException {
+        Path probe;
+        try {
+            probe = Files.createTempFile(dir, OWNER_PROBE_PREFIX, null);
+        } catch (IOException e) {
+            throw new IOException("cache directory is not writable: " + dir, e);
+        }
+        try {
+            return Files.getOwner(probe, LinkOption.NOFOLLOW_LINKS);
+        } finally {
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    /**
+     * Only called with the lock held: no other JVM is between writing a temp file and renaming it.
+     */
+    private void deleteStaleTempFiles() throws IOException {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(dir, "*" + TEMP_SUFFIX)) {
+            for (Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static boolean hasSize(Path file, long size) {
+        try {
+            return Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) && Files.size(file) == size;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean matches(Path file, byte[] content) {
+        if (!hasSize(file, content.length)) {
+            return false;
+        }
+        byte[] buf = new byte[8192];
+        try (InputStream is = Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS)) {
+            int offset = 0;
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                if (offset + n > content.length) {
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != content[offset + i]) {
+                        return false;
+                    }
+                }
+                offset += n;
+            }
+            return offset == content.length;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
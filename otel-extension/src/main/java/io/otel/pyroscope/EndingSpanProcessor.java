@@ -0,0 +1,67 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.internal.ExtendedSpanProcessor;
+
+/**
+ * Exposes {@link PyroscopeOtelSpanProcessor#onEnding(ReadWriteSpan)} to SDKs that have {@link ExtendedSpanProcessor}
+ * (1.42+). {@code onEnding} runs after the end timestamp is set but while the span still accepts attributes.
+ *
+ * Only loaded through {@link OtelCompat#withOnEnding(PyroscopeOtelSpanProcessor)}, after the interface was found.
+ */
+final class EndingSpanProcessor implements ExtendedSpanProcessor {
+
+    private final PyroscopeOtelSpanProcessor delegate;
+
+    EndingSpanProcessor(PyroscopeOtelSpanProcessor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+        delegate.onStart(parentContext, span);
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return delegate.isStartRequired();
+    }
+
+    @Override
+    public void onEnding(ReadWriteSpan span) {
+        delegate.onEnding(span);
+    }
+
+    @Override
+    public boolean isOnEndingRequired() {
+        return delegate.isOnEndingRequired();
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        delegate.onEnd(span);
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return delegate.isEndRequired();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+
+    @Override
+    public String toString() {
+        return "EndingSpanProcessor{" + delegate + '}';
+    }
+}
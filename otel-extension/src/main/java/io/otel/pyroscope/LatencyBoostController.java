@@ -0,0 +1,261 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Boosts profiling of threads whose root span runs longer than usual for its name.
+ *
+ * Span ends feed a {@link LatencyHistogram} per span name, normalized with the span name rules of
+ * {@link SpanNameCache} so that all URLs of a {@code /users/{id}} route share one histogram. Span starts only
+ * publish the span and its start time in a per-thread slot; a watchdog thread scans the slots every
+ * {@link #CHECK_INTERVAL_MILLIS} ms and starts a {@link ProfilingBoost} for threads whose span has run past
+ * {@code max(minDuration, quantile of its name)}. The watchdog parks while no root span is in flight. The boost
+ * stops when the span ends. At most {@code maxConcurrent} threads are boosted at a time and at most
+ * {@code maxPerSecond} boosts are started per second, so a latency storm cannot turn into a profiler storm.
+ */
+final class LatencyBoostController {
+
+    static final long CHECK_INTERVAL_MILLIS = 5;
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final double quantile;
+    private final long minDurationNanos;
+    private final int maxConcurrent;
+    private final int maxPerSecond;
+    private final int maxNames;
+    private final int normalization;
+    private final ProfilingBoost boost;
+
+    // Keyed by normalized name.
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    // Raw names that normalize to another name, bounded like the histograms; see SpanNameCache.
+    private final ConcurrentHashMap<String, LatencyHistogram> aliases = new ConcurrentHashMap<>();
+    private final LatencyHistogram overflow;
+    private final Queue<Slot> slots = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Slot> slot = ThreadLocal.withInitial(this::register);
+    private final AtomicInteger active = new AtomicInteger();
+    // Slots with a span. The watchdog parks while this is zero.
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Only touched by the thread running check().
+    private long windowStart;
+    private int windowBoosts;
+
+    private volatile Thread watchdog;
+
+    LatencyBoostController(double quantile, long minDurationNanos, int maxConcurrent, int maxPerSecond, int maxNames,
+                           int normalization, ProfilingBoost boost) {
+        this.quantile = quantile;
+        this.minDurationNanos = minDurationNanos;
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerSecond = maxPerSecond;
+        this.maxNames = maxNames;
+        this.normalization = normalization;
+        this.boost = boost;
+        this.overflow = new LatencyHistogram(quantile);
+    }
+
+    void start() {
+        Thread t = new Thread(this::watch, "pyroscope-latency-boost");
+        t.setDaemon(true);
+        watchdog = t;
+        t.start();
+    }
+
+    void close() {
+        Thread t = watchdog;
+        watchdog = null;
+        if (t != null) {
+            t.interrupt();
+        }
+        for (Slot s : slots) {
+            stop(s);
+        }
+    }
+
+    void onStart(ReadableSpan span) {
+        Slot s = slot.get();
+        ReadableSpan current = s.span.get();
+        if (current != null) {
+            if (!current.hasEnded()) {
+                // A root span inside a root span: the outer one is the request being timed.
+                return;
+            }
+            // The previous span ended on another thread.
+            finish(s, current);
+        }
+        s.histogram = histogram(span.getName());
+        s.startNanos = System.nanoTime();
+        s.span.set(span);
+        if (inFlight.getAndIncrement() == 0) {
+            Thread t = watchdog;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    void onEnd(ReadableSpan span) {
+        histogram(span.getName()).record(span.getLatencyNanos());
+        finish(slot.get(), span);
+    }
+
+    /**
+     * One watchdog pass. Package-private so tests can drive the controller with their own clock.
+     */
+    void check(long now) {
+        for (Iterator<Slot> it = slots.iterator(); it.hasNext(); ) {
+            Slot s = it.next();
+            Thread t = s.thread.get();
+            if (t == null || !t.isAlive()) {
+                stop(s);
+                if (s.span.getAndSet(null) != null) {
+                    inFlight.decrementAndGet();
+                }
+                it.remove();
+                continue;
+            }
+            ReadableSpan span = s.span.get();
+            if (span == null || s.boosted) {
+                continue;
+            }
+            if (span.hasEnded()) {
+                finish(s, span);
+                continue;
+            }
+            long threshold = Math.max(minDurationNanos, s.histogram.quantileNanos());
+            if (now - s.startNanos < threshold) {
+                continue;
+            }
+            if (active.get() >= maxConcurrent || !hasBudget(now)) {
+                continue;
+            }
+            boost(s, span, t);
+        }
+    }
+
+    int activeBoosts() {
+        return active.get();
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private void watch() {
+        while (watchdog == Thread.currentThread()) {
+            try {
+                if (inFlight.get() == 0) {
+                    // onStart unparks us; a permit left by an unpark before this call makes park return at once.
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) {
+                        return;
+                    }
+                    continue;
+                }
+                check(System.nanoTime());
+                Thread.sleep(CHECK_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                PyroscopeOtelDebug.log("LatencyBoostController: check failed", e);
+            }
+        }
+    }
+
+    private boolean hasBudget(long now) {
+        if (now - windowStart >= SECOND_NANOS) {
+            windowStart = now;
+            windowBoosts = 0;
+        }
+        return windowBoosts < maxPerSecond;
+    }
+
+    private void boost(Slot s, ReadableSpan span, Thread t) {
+        synchronized (s) {
+            if (s.span.get() != span || s.boosted || !boost.start(t)) {
+                return;
+            }
+            s.boosted = true;
+            active.incrementAndGet();
+            windowBoosts++;
+        }
+        // The span may have ended between the check above and the boost becoming visible to its thread.
+        if (s.span.get() != span) {
+            stop(s);
+        }
+    }
+
+    private void finish(Slot s, ReadableSpan span) {
+        if (!s.span.compareAndSet(span, null)) {
+            return;
+        }
+        inFlight.decrementAndGet();
+        if (s.boosted) {
+            stop(s);
+        }
+    }
+
+    private void stop(Slot s) {
+        synchronized (s) {
+            if (!s.boosted) {
+                return;
+            }
+            s.boosted = false;
+            active.decrementAndGet();
+            Thread t = s.thread.get();
+            if (t != null) {
+                boost.stop(t);
+            }
+        }
+    }
+
+    private LatencyHistogram histogram(String name) {
+        LatencyHistogram h = histograms.get(name);
+        if (h != null) {
+            return h;
+        }
+        h = aliases.get(name);
+        if (h != null) {
+            return h;
+        }
+        String normalized = SpanNameCache.normalize(name, normalization);
+        h = histograms.get(normalized);
+        if (h == null) {
+            h = histograms.size() >= maxNames
+                    ? overflow
+                    : histograms.computeIfAbsent(normalized, k -> new LatencyHistogram(quantile));
+        }
+        if (normalized != name && aliases.size() < maxNames) {
+            aliases.putIfAbsent(name, h);
+        }
+        return h;
+    }
+
+    private Slot register() {
+        Slot s = new Slot(Thread.currentThread());
+        slots.add(s);
+        return s;
+    }
+
+    private static final class Slot {
+        final WeakReference<Thread> thread;
+        final AtomicReference<ReadableSpan> span = new AtomicReference<>();
+        volatile LatencyHistogram histogram;
+        volatile long startNanos;
+        volatile boolean boosted;
+
+        Slot(Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package io.otel.pyroscope;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running latency histogram of one span name. Buckets are log-linear (four per power of two, so quantiles are
+ * within ~25%), counts are halved once {@link #WINDOW} samples accumulated so old traffic fades out, and the
+ * tracked quantile is recomputed every {@link #RECOMPUTE_EVERY} samples by the thread that records it.
+ */
+final class LatencyHistogram {
+
+    static final int RECOMPUTE_EVERY = 256;
+    static final long WINDOW = 8192;
+    private static final int BUCKETS = 248;
+
+    private final double quantile;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private volatile long quantileNanos = Long.MAX_VALUE;
+
+    LatencyHistogram(double quantile) {
+        this.quantile = quantile;
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+        if ((total.incrementAndGet() & (RECOMPUTE_EVERY - 1)) == 0) {
+            recompute();
+        }
+    }
+
+    /**
+     * Latest estimate of the tracked quantile, or {@code Long.MAX_VALUE} until enough samples were recorded.
+     */
+    long quantileNanos() {
+        return quantileNanos;
+    }
+
+    private void recompute() {
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            sum += counts.get(i);
+        }
+        long rank = (long) Math.ceil(sum * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                quantileNanos = upperBound(i);
+                break;
+            }
+        }
+        if (sum >= WINDOW) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = counts.get(i);
+                counts.addAndGet(i, -(c / 2));
+            }
+        }
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < 4) {
+            return (int) nanos;
+        }
+        int e = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (e - 2)) & 3;
+        return (e - 1) * 4 + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket + 1 >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        return lowerBound(bucket + 1) - 1;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int e = bucket / 4 + 1;
+        int sub = bucket % 4;
+        return (4L + sub) << (e - 2);
+    }
+}
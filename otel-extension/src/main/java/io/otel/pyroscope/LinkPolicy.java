@@ -0,0 +1,39 @@
+package io.otel.pyroscope;
+
+/**
+ * The linking switches of {@link PyroscopeOtelConfiguration} that can change at runtime. The processor reads one
+ * immutable instance per callback, so a span never sees half of a change.
+ */
+final class LinkPolicy {
+
+    final boolean rootSpanOnly;
+    final boolean addSpanName;
+    final LinkSampler sampler;
+
+    LinkPolicy(boolean rootSpanOnly, boolean addSpanName, LinkSampler sampler) {
+        this.rootSpanOnly = rootSpanOnly;
+        this.addSpanName = addSpanName;
+        this.sampler = sampler;
+    }
+
+    static LinkPolicy of(PyroscopeOtelConfiguration configuration) {
+        return new LinkPolicy(configuration.rootSpanOnly, configuration.addSpanName,
+                new LinkSampler(configuration.linkSampledOnly, configuration.linkRatio));
+    }
+
+    /**
+     * Returns the policy for a {@link OverheadGovernor} level: each level keeps the restrictions of the levels
+     * before it and never links more than the configuration does.
+     */
+    static LinkPolicy forLevel(PyroscopeOtelConfiguration configuration, double sampleRatio, int level) {
+        boolean addSpanName = configuration.addSpanName && level < OverheadGovernor.NO_SPAN_NAMES;
+        double ratio = level < OverheadGovernor.SAMPLED ? configuration.linkRatio : configuration.linkRatio * sampleRatio;
+        boolean rootSpanOnly = configuration.rootSpanOnly || level >= OverheadGovernor.ROOT_ONLY;
+        return new LinkPolicy(rootSpanOnly, addSpanName, new LinkSampler(configuration.linkSampledOnly, ratio));
+    }
+
+    @Override
+    public String toString() {
+        return "LinkPolicy{rootSpanOnly=" + rootSpanOnly + ", addSpanName=" + addSpanName + ", sampler=" + sampler + '}';
+    }
+}
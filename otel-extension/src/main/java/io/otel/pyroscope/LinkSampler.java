@@ -0,0 +1,56 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.SpanContext;
+
+/**
+ * Decides whether a span is linked to profiles at all: gets the {@code pyroscope.profile.id} attribute and sets
+ * the profiler context.
+ *
+ * The ratio decision uses the lower 64 bits of the trace id the same way OTel's {@code TraceIdRatioBased} sampler
+ * does, so every service configured with the same ratio links the same traces, and a trace sampled by a ratio
+ * sampler at rate r is always linked by a link ratio of at least r.
+ */
+final class LinkSampler {
+
+    static final LinkSampler ALL = new LinkSampler(false, 1.0);
+
+    private final boolean all;
+    private final boolean sampledOnly;
+    private final long idUpperBound;
+
+    LinkSampler(boolean sampledOnly, double ratio) {
+        this.sampledOnly = sampledOnly;
+        if (ratio <= 0.0) {
+            this.idUpperBound = Long.MIN_VALUE;
+        } else if (ratio >= 1.0) {
+            this.idUpperBound = Long.MAX_VALUE;
+        } else {
+            this.idUpperBound = (long) (ratio * Long.MAX_VALUE);
+        }
+        this.all = !sampledOnly && idUpperBound == Long.MAX_VALUE;
+    }
+
+    boolean shouldLink(SpanContext spanContext) {
+        if (all) {
+            return true;
+        }
+        if (sampledOnly && !spanContext.isSampled()) {
+            return false;
+        }
+        if (idUpperBound == Long.MAX_VALUE) {
+            return true;
+        }
+        long randomPart;
+        try {
+            randomPart = PyroscopeOtelSpanProcessor.parseHex64(spanContext.getTraceId(), 16);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return false;
+        }
+        return Math.abs(randomPart) < idUpperBound;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkSampler{sampledOnly=" + sampledOnly + ", idUpperBound=" + idUpperBound + '}';
+    }
+}
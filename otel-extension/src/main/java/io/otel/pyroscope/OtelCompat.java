@@ -1,8 +1,18 @@
 package io.otel.pyroscope;
 
 import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 
 public class OtelCompat {
+    // ExtendedSpanProcessor#onEnding, the last callback where a span still accepts attributes, is only since 1.42
+    private static final boolean ON_ENDING = detectOnEnding();
+    // jdk.jfr is in Java 11+ and 8u262+; the event classes in SpanJfrEvents must not be loaded without it
+    private static final boolean JFR = detectJfr();
+
     // For compat reasons
     // io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties.getBoolean(java.lang.String, boolean) is only since 1.15
     static boolean getBoolean(ConfigProperties cfg, String name, boolean defaultValue) {
@@ -12,4 +22,84 @@ public class OtelCompat {
         }
         return v;
     }
+
+    static int getInt(ConfigProperties cfg, String name, int defaultValue) {
+        Integer v = cfg.getInt(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        return v;
+    }
+
+    static double getDouble(ConfigProperties cfg, String name, double defaultValue) {
+        Double v = cfg.getDouble(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        return v;
+    }
+
+    static String getString(ConfigProperties cfg, String name, String defaultValue) {
+        String v = cfg.getString(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        return v;
+    }
+
+    static Duration getDuration(ConfigProperties cfg, String name, Duration defaultValue) {
+        Duration v = cfg.getDuration(name);
+        if (v == null) {
+            return defaultValue;
+        }
+        return v;
+    }
+
+    static List<String> getList(ConfigProperties cfg, String name) {
+        List<String> v = cfg.getList(name);
+        if (v == null) {
+            return Collections.emptyList();
+        }
+        return v;
+    }
+
+    static boolean hasOnEnding() {
+        return ON_ENDING;
+    }
+
+    static boolean hasJfr() {
+        return JFR;
+    }
+
+    /**
+     * Returns the span processor to register: the processor itself, or an adapter that also forwards
+     * {@code onEnding} when the processor needs it.
+     */
+    static SpanProcessor withOnEnding(PyroscopeOtelSpanProcessor processor) {
+        if (!processor.isOnEndingRequired()) {
+            return processor;
+        }
+        return new EndingSpanProcessor(processor);
+    }
+
+    private static boolean detectOnEnding() {
+        try {
+            Class.forName("io.opentelemetry.sdk.trace.internal.ExtendedSpanProcessor", false,
+                    SpanProcessor.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            PyroscopeOtelDebug.log("OtelCompat: ExtendedSpanProcessor is not available, onEnding is not supported");
+            return false;
+        }
+    }
+
+    private static boolean detectJfr() {
+        try {
+            Class.forName("jdk.jfr.Event", false, OtelCompat.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            PyroscopeOtelDebug.log("OtelCompat: jdk.jfr is not available, JFR span events are not supported");
+            return false;
+        }
+    }
 }
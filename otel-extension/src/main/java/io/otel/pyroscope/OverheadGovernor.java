@@ -0,0 +1,150 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.api.Logger;
+import io.pyroscope.javaagent.impl.DefaultLogger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Steps span linking down when the span processor costs more CPU than its budget, and back up when it is cheap
+ * again.
+ *
+ * One in {@link #SAMPLE_EVERY} callbacks is timed on its thread, and the times go to a {@link LongAdder}. Every
+ * {@link #TICK_MILLIS} ms a daemon thread turns them into a share of the machine's CPU capacity over a sliding
+ * window of the last {@code windowTicks} ticks. Above the budget it moves to the next {@link #LEVEL_NAMES level}:
+ * no span names, then only a fraction of traces linked, then root spans only. Below half the budget it moves back
+ * one level. Each decision needs a full window measured at the current level, so the governor does not flap.
+ */
+final class OverheadGovernor {
+
+    static final int FULL = 0;
+    static final int NO_SPAN_NAMES = 1;
+    static final int SAMPLED = 2;
+    static final int ROOT_ONLY = 3;
+    static final String[] LEVEL_NAMES = {"full", "no_span_names", "sampled", "root_only"};
+
+    static final long TICK_MILLIS = 1000;
+    static final int SAMPLE_EVERY = 16;
+
+    private final double budget;
+    private final int cpus;
+    private final IntConsumer onLevelChange;
+    private final LongAdder sampledNanos = new LongAdder();
+
+    // Only touched by the thread running tick().
+    private final long[] costs;
+    private final long[] walls;
+    private int next;
+    private int filled;
+    private long lastTick;
+
+    private volatile int level = FULL;
+    private volatile double share;
+    private final LongAdder changes = new LongAdder();
+    private volatile Thread ticker;
+
+    OverheadGovernor(double budget, int windowTicks, int cpus, IntConsumer onLevelChange) {
+        this.budget = budget;
+        this.cpus = Math.max(1, cpus);
+        this.costs = new long[Math.max(1, windowTicks)];
+        this.walls = new long[costs.length];
+        this.onLevelChange = onLevelChange;
+    }
+
+    void start() {
+        lastTick = System.nanoTime();
+        Thread t = new Thread(this::run, "pyroscope-overhead-governor");
+        t.setDaemon(true);
+        ticker = t;
+        t.start();
+    }
+
+    void close() {
+        Thread t = ticker;
+        ticker = null;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * Returns true if the caller should time this callback and pass the time to {@link #recordSample(long)}.
+     */
+    static boolean shouldSample() {
+        return (ThreadLocalRandom.current().nextInt() & (SAMPLE_EVERY - 1)) == 0;
+    }
+
+    void recordSample(long nanos) {
+        sampledNanos.add(nanos);
+    }
+
+    /**
+     * One window step. Package-private so tests can drive the governor with their own clock.
+     */
+    void tick(long now) {
+        costs[next] = sampledNanos.sumThenReset() * SAMPLE_EVERY;
+        walls[next] = now - lastTick;
+        lastTick = now;
+        next = (next + 1) % costs.length;
+        if (filled < costs.length) {
+            filled++;
+        }
+        long cost = 0;
+        long wall = 0;
+        for (int i = 0; i < filled; i++) {
+            cost += costs[i];
+            wall += walls[i];
+        }
+        double s = wall <= 0 ? 0 : (double) cost / ((double) wall * cpus);
+        share = s;
+        if (filled < costs.length) {
+            return;
+        }
+        int current = level;
+        if (s > budget && current < ROOT_ONLY) {
+            setLevel(current + 1, s);
+        } else if (s < budget / 2 && current > FULL) {
+            setLevel(current - 1, s);
+        }
+    }
+
+    int level() {
+        return level;
+    }
+
+    double share() {
+        return share;
+    }
+
+    long changes() {
+        return changes.sum();
+    }
+
+    private void setLevel(int newLevel, double s) {
+        int old = level;
+        level = newLevel;
+        changes.increment();
+        // Measure the new level from scratch.
+        filled = 0;
+        next = 0;
+        DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.INFO,
+                String.format("Pyroscope span processor used %.3f%% of CPU (budget %.3f%%), linking level %s -> %s",
+                        s * 100, budget * 100, LEVEL_NAMES[old], LEVEL_NAMES[newLevel]));
+        onLevelChange.accept(newLevel);
+    }
+
+    private void run() {
+        while (ticker == Thread.currentThread()) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+                tick(System.nanoTime());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                PyroscopeOtelDebug.log("OverheadGovernor: tick failed", e);
+            }
+        }
+    }
+}
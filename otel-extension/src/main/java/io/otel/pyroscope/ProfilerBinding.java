@@ -0,0 +1,196 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerScopedContext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link ProfilerApi} instance together with what was resolved about its implementation class. Resolved once
+ * per instance published in {@link io.pyroscope.javaagent.api.ProfilerApiHolder}, and replaced when the holder
+ * is swapped.
+ *
+ * {@code ProfilerApi} only takes the trace id as a hex string. The processor passes the string the span context
+ * already holds, and the agent parses it in place, so the trace id costs no allocation on either side. The two
+ * halves the processor parses itself are only used to tell traces apart.
+ *
+ * A scoped context registers its labels under a context id and sets that id for the thread that creates it.
+ * {@code ProfilerApi} has no way to set the id again, so {@link #labelContext(ProfilerScopedContext)} looks up the
+ * id and the profiler's {@code setContextId} through the agent's scoped context implementation, once per
+ * instance. Attribute labels then create one scoped context per combination of values instead of one per span.
+ *
+ * {@link #active} tells whether the profiler is profiling, so that the span path skips every profiler call while
+ * it is not, e.g. with {@code otel.pyroscope.start.profiling=false}. {@code ProfilerApi} reports neither starts
+ * nor stops, so the flag is re-checked periodically with {@link #refreshActive()} until profiling starts. A stop
+ * is not noticed: the span path then keeps setting a context that no sample reads.
+ */
+final class ProfilerBinding {
+
+    static final ProfilerBinding NONE = new ProfilerBinding(null);
+
+    private static final MethodType CONTEXT_ID_TYPE = MethodType.methodType(long.class, ProfilerScopedContext.class);
+    private static final MethodType SET_CONTEXT_ID_TYPE = MethodType.methodType(void.class, long.class);
+
+    final ProfilerApi api;
+    volatile boolean active;
+    // Resolved from the first scoped context the implementation returns, null if it does not have the members.
+    private boolean labelContextsResolved;
+    private MethodHandle contextId;
+    private MethodHandle setContextId;
+
+    private ProfilerBinding(ProfilerApi api) {
+        this.api = api;
+        this.active = isProfiling(api);
+    }
+
+    static ProfilerBinding bind(ProfilerApi api) {
+        if (api == null) {
+            return NONE;
+        }
+        return new ProfilerBinding(api);
+    }
+
+    boolean refreshActive() {
+        boolean a = isProfiling(api);
+        active = a;
+        return a;
+    }
+
+    private static boolean isProfiling(ProfilerApi api) {
+        if (api == null) {
+            return false;
+        }
+        try {
+            return api.isProfilingStarted();
+        } catch (RuntimeException | LinkageError e) {
+            // Cannot tell: keep linking, as before the flag existed.
+            PyroscopeOtelDebug.log("ProfilerBinding: isProfilingStarted failed on " + api.getClass().getName(), e);
+            return true;
+        }
+    }
+
+    /**
+     * Sets the span context and trace id, {@code traceId} being the hex trace id of the span context or null.
+     */
+    void setContext(long spanId, long spanName, String traceId) {
+        api.setTracingContext(spanId, spanName);
+        if (traceId == null) {
+            api.clearTraceId();
+            return;
+        }
+        try {
+            api.setTraceId(traceId);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            api.clearTraceId();
+        }
+    }
+
+    /**
+     * Sets the span context only, for a span of the trace whose id the thread already has.
+     */
+    void setSpanContext(long spanId, long spanName) {
+        api.setTracingContext(spanId, spanName);
+    }
+
+    void clearContext() {
+        api.setTracingContext(0, 0);
+        api.clearTraceId();
+    }
+
+    /**
+     * Turns {@code scopedContext}, just created through {@link ProfilerApi#createScopedContext}, into a context that
+     * can be activated again on any thread. It is never closed, so the profiler keeps its labels. Returns null if
+     * the implementation does not expose the context id, or labels are off: the caller then keeps
+     * {@code scopedContext} for this span only.
+     */
+    LabelContext labelContext(ProfilerScopedContext scopedContext) {
+        if (scopedContext == null || !resolveLabelContexts(scopedContext)) {
+            return null;
+        }
+        long id;
+        try {
+            id = (long) contextId.invokeExact(scopedContext);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            return null;
+        }
+        return id == 0 ? null : new LabelContext(this, scopedContext, id, setContextId);
+    }
+
+    private synchronized boolean resolveLabelContexts(ProfilerScopedContext scopedContext) {
+        if (!labelContextsResolved) {
+            labelContextsResolved = true;
+            // Members of the agent's ScopedContext wrapper, looked up by name from the instance: the class names
+            // are relocated in the shadowed extension jar, not in the agent.
+            try {
+                Field ctx = scopedContext.getClass().getDeclaredField("ctx");
+                ctx.setAccessible(true);
+                Field id = ctx.getType().getDeclaredField("contextId");
+                id.setAccessible(true);
+                Method getAsyncProfiler = ctx.getType().getDeclaredMethod("getAsyncProfiler");
+                getAsyncProfiler.setAccessible(true);
+                Object asprof = getAsyncProfiler.invoke(null);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle resolvedContextId = MethodHandles.filterReturnValue(lookup.unreflectGetter(ctx),
+                        lookup.unreflectGetter(id)).asType(CONTEXT_ID_TYPE);
+                MethodHandle resolvedSetContextId = lookup.unreflect(asprof.getClass().getMethod("setContextId", long.class))
+                        .bindTo(asprof).asType(SET_CONTEXT_ID_TYPE);
+                contextId = resolvedContextId;
+                setContextId = resolvedSetContextId;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                PyroscopeOtelDebug.log("ProfilerBinding: cannot reuse scoped contexts of " + api.getClass().getName()
+                        + ", creating one per span", e);
+            }
+        }
+        return setContextId != null;
+    }
+
+    /**
+     * Scoped context of one label combination, shared by every span with those labels. Closing it only clears the
+     * thread's context id, as closing a scoped context created without a parent does.
+     */
+    static final class LabelContext implements ProfilerScopedContext {
+        final ProfilerBinding binding;
+        private final ProfilerScopedContext scopedContext;
+        private final long contextId;
+        private final MethodHandle setContextId;
+
+        LabelContext(ProfilerBinding binding, ProfilerScopedContext scopedContext, long contextId,
+                     MethodHandle setContextId) {
+            this.binding = binding;
+            this.scopedContext = scopedContext;
+            this.contextId = contextId;
+            this.setContextId = setContextId;
+        }
+
+        void activate() {
+            set(contextId);
+        }
+
+        @Override
+        public void forEachLabel(BiConsumer<String, String> consumer) {
+            scopedContext.forEachLabel(consumer);
+        }
+
+        @Override
+        public void close() {
+            set(0);
+        }
+
+        private void set(long id) {
+            try {
+                setContextId.invokeExact(id);
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                // setContextId declares nothing.
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.otel.pyroscope;
+
+/**
+ * Raises profiling resolution for a single thread while {@link LatencyBoostController} considers it slow, while
+ * it runs a request {@link BaggageBoostController} found marked, or while a linked span is current on it with
+ * {@link SpanWallClock}.
+ */
+interface ProfilingBoost {
+
+    /**
+     * Returns false if the boost could not be applied, in which case {@link #stop(Thread)} is not called.
+     */
+    boolean start(Thread thread);
+
+    void stop(Thread thread);
+}
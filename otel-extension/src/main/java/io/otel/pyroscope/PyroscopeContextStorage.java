@@ -0,0 +1,275 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.ContextStorage;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.instrumentation.api.instrumenter.LocalRootSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+/**
+ * {@link ContextStorage} wrapper that keeps the profiler span context in sync with the span that is
+ * actually current on a thread. Every {@code makeCurrent()} sets the profiler context of the attached span
+ * and the returned {@link Scope} restores the previous one on close, so samples taken on executor threads,
+ * {@code CompletableFuture} chains and event loops get the span id of the request they are working on.
+ *
+ * The wrapper has to be registered before OTel initializes its context storage, which is why
+ * {@link #install()} runs from a properties customizer. Until a span processor is bound with
+ * {@link #bind(PyroscopeOtelSpanProcessor)} it is a pass-through.
+ */
+final class PyroscopeContextStorage implements ContextStorage {
+
+    // No initial value: the virtual thread hooks look the state up without creating one. The first lookup on a
+    // thread still creates its ThreadLocalMap.
+    private static final ThreadLocal<ThreadState> STATE = new ThreadLocal<>();
+
+    private static volatile boolean installed = false;
+    private static volatile PyroscopeOtelSpanProcessor processor;
+
+    private final ContextStorage delegate;
+
+    private PyroscopeContextStorage(ContextStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    static void install() {
+        ContextStorage.addWrapper(delegate -> {
+            installed = true;
+            PyroscopeOtelDebug.log("PyroscopeContextStorage: wrapping " + delegate);
+            return new PyroscopeContextStorage(delegate);
+        });
+    }
+
+    /**
+     * Returns true if the wrapper made it into the context storage chain. Wrappers added after the storage
+     * was first used are silently ignored by OTel, so this forces initialization and checks.
+     */
+    static boolean isInstalled() {
+        ContextStorage.get();
+        return installed;
+    }
+
+    static void bind(PyroscopeOtelSpanProcessor spanProcessor) {
+        processor = spanProcessor;
+    }
+
+    @Override
+    public Scope attach(Context toAttach) {
+        Scope scope = delegate.attach(toAttach);
+        PyroscopeOtelSpanProcessor p = processor;
+        // The delegate returns the shared no-op scope when the context is already current: nothing to restore.
+        if (p == null || toAttach == null || scope == Scope.noop()) {
+            return scope;
+        }
+        ProfilerBinding profiler = p.getProfiler();
+        if (!profiler.active) {
+            return scope;
+        }
+        ThreadState state = STATE.get();
+        if (state == null) {
+            state = new ThreadState();
+            STATE.set(state);
+        }
+        LinkPolicy policy = p.policy();
+        Span span = Span.fromContextOrNull(toAttach);
+        if (!(span instanceof ReadableSpan)) {
+            // No local span (or only a propagated remote parent): nothing is running on behalf of a span.
+            span = null;
+        } else if (policy.rootSpanOnly && !PyroscopeOtelSpanProcessor.isRootSpan((ReadableSpan) span)) {
+            Span root = LocalRootSpan.fromContextOrNull(toAttach);
+            if (!(root instanceof ReadableSpan)) {
+                // The local root is unknown, keep whatever the thread is labeled with.
+                return scope;
+            }
+            span = root;
+        }
+        if (span != null && !policy.sampler.shouldLink(span.getSpanContext())) {
+            // Not linked to profiles: samples taken while it is current get no span label.
+            span = null;
+        }
+        if (span == state.span) {
+            return scope;
+        }
+        RestoringScope restoring = new RestoringScope(scope, state);
+        state.apply(profiler, p, policy, span);
+        return restoring;
+    }
+
+    /**
+     * Called on the carrier thread when a virtual thread mounts, see {@link VirtualThreadSupport}.
+     */
+    static void onVirtualThreadMount() {
+        ThreadState state = STATE.get();
+        PyroscopeOtelSpanProcessor p = processor;
+        if (state == null || state.span == null || p == null) {
+            return;
+        }
+        ProfilerBinding profiler = p.getProfiler();
+        if (profiler.api != null) {
+            profiler.setContext(state.spanId, state.spanName, state.span.getSpanContext().getTraceId());
+            state.traceIdWritten(profiler);
+        }
+    }
+
+    /**
+     * Called on the carrier thread when a virtual thread unmounts, see {@link VirtualThreadSupport}.
+     */
+    static void onVirtualThreadUnmount() {
+        ThreadState state = STATE.get();
+        PyroscopeOtelSpanProcessor p = processor;
+        if (state == null || state.span == null || p == null) {
+            return;
+        }
+        ProfilerBinding profiler = p.getProfiler();
+        if (profiler.api != null) {
+            profiler.clearContext();
+            state.traceIdBinding = null;
+        }
+    }
+
+    @Override
+    public Context current() {
+        return delegate.current();
+    }
+
+    @Override
+    public Context root() {
+        return delegate.root();
+    }
+
+    /**
+     * Profiler context last written on a thread. Kept on the Java side so that re-attaching the same span,
+     * which is the common case for nested scopes, costs no native calls, and switching to another span of the
+     * same trace only updates the span context.
+     */
+    private static final class ThreadState {
+        final Thread thread = Thread.currentThread();
+        // See SpanContextStack: a virtual thread's carrier may be relabeled behind our back without the hooks.
+        final boolean trackTraceId = VirtualThreadSupport.isInstalled() || !VirtualThreadSupport.isVirtual(thread);
+        Span span;
+        long spanId;
+        long spanName;
+        long traceIdHigh;
+        long traceIdLow;
+        // Binding the current trace id was written through, null if it is cleared or unknown.
+        ProfilerBinding traceIdBinding;
+        boolean wallClockMarked;
+
+        void apply(ProfilerBinding profiler, PyroscopeOtelSpanProcessor p, LinkPolicy policy, Span span) {
+            if (span == null) {
+                set(profiler, p, null, 0, 0, 0, 0);
+                return;
+            }
+            ReadableSpan readable = (ReadableSpan) span;
+            SpanContext spanContext = readable.getSpanContext();
+            long id = PyroscopeOtelSpanProcessor.parseSpanId(spanContext.getSpanId());
+            long name = policy.addSpanName ? p.spanNameId(profiler.api, readable.getName()) : 0;
+            String traceId = spanContext.getTraceId();
+            long high;
+            long low;
+            try {
+                high = PyroscopeOtelSpanProcessor.parseHex64(traceId, 0);
+                low = PyroscopeOtelSpanProcessor.parseHex64(traceId, 16);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                high = 0;
+                low = 0;
+            }
+            set(profiler, p, span, id, name, high, low);
+        }
+
+        void set(ProfilerBinding profiler, PyroscopeOtelSpanProcessor p, Span span, long spanId, long spanName,
+                 long traceIdHigh, long traceIdLow) {
+            boolean sameTrace = trackTraceId && traceIdBinding == profiler && this.traceIdHigh == traceIdHigh
+                    && this.traceIdLow == traceIdLow;
+            this.span = span;
+            this.spanId = spanId;
+            this.spanName = spanName;
+            this.traceIdHigh = traceIdHigh;
+            this.traceIdLow = traceIdLow;
+            if (span == null) {
+                profiler.clearContext();
+                traceIdBinding = null;
+                if (wallClockMarked) {
+                    wallClockMarked = false;
+                    p.exitWallClock(thread);
+                }
+            } else {
+                if (sameTrace) {
+                    profiler.setSpanContext(spanId, spanName);
+                } else {
+                    profiler.setContext(spanId, spanName, span.getSpanContext().getTraceId());
+                    traceIdWritten(profiler);
+                }
+                if (!wallClockMarked) {
+                    wallClockMarked = p.enterWallClock(thread);
+                }
+            }
+        }
+
+        /**
+         * Drops the span without touching the profiler, so a thread whose context can no longer be restored does
+         * not keep it reachable. The next attach writes the full context again.
+         */
+        void forget() {
+            span = null;
+            spanId = 0;
+            spanName = 0;
+            traceIdHigh = 0;
+            traceIdLow = 0;
+            traceIdBinding = null;
+        }
+
+        void traceIdWritten(ProfilerBinding profiler) {
+            // An unparsable trace id is written as whatever the profiler makes of the string; never skip it.
+            traceIdBinding = traceIdHigh == 0 && traceIdLow == 0 ? null : profiler;
+        }
+    }
+
+    private static final class RestoringScope implements Scope {
+        private final Scope delegate;
+        private final ThreadState state;
+        // Cleared on close so a scope kept around by the caller does not keep the span reachable.
+        private Span span;
+        private final long spanId;
+        private final long spanName;
+        private final long traceIdHigh;
+        private final long traceIdLow;
+        private boolean closed;
+
+        RestoringScope(Scope delegate, ThreadState state) {
+            this.delegate = delegate;
+            this.state = state;
+            this.span = state.span;
+            this.spanId = state.spanId;
+            this.spanName = state.spanName;
+            this.traceIdHigh = state.traceIdHigh;
+            this.traceIdLow = state.traceIdLow;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Span previous = span;
+            span = null;
+            // A scope closed on another thread is a bug in the caller; do not label the wrong thread.
+            if (state.thread != Thread.currentThread()) {
+                return;
+            }
+            PyroscopeOtelSpanProcessor p = processor;
+            if (p == null) {
+                return;
+            }
+            ProfilerBinding profiler = p.getProfiler();
+            if (profiler.api != null) {
+                state.set(profiler, p, previous, spanId, spanName, traceIdHigh, traceIdLow);
+            } else {
+                state.forget();
+            }
+        }
+    }
+}
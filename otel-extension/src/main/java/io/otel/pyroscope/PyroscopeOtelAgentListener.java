@@ -0,0 +1,16 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.javaagent.extension.AgentListener;
+import io.opentelemetry.sdk.autoconfigure.AutoConfiguredOpenTelemetrySdk;
+
+/**
+ * Registers the span processor's self-telemetry once the agent's SDK, and with it the meter provider, is built.
+ */
+public class PyroscopeOtelAgentListener implements AgentListener {
+
+    @Override
+    public void afterAgent(AutoConfiguredOpenTelemetrySdk autoConfiguredOpenTelemetrySdk) {
+        SpanProcessorMetrics.registerPublished(
+                autoConfiguredOpenTelemetrySdk.getOpenTelemetrySdk().getMeter("io.pyroscope.otel"));
+    }
+}
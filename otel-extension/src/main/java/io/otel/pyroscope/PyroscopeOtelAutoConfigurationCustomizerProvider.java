@@ -10,50 +10,239 @@ import io.pyroscope.javaagent.api.ProfilerApiHolder;
 import io.pyroscope.javaagent.impl.DefaultLogger;
 
 import java.lang.reflect.Constructor;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 
 import static io.otel.pyroscope.OtelCompat.getBoolean;
+import static io.otel.pyroscope.OtelCompat.getDouble;
+import static io.otel.pyroscope.OtelCompat.getDuration;
+import static io.otel.pyroscope.OtelCompat.getInt;
+import static io.otel.pyroscope.OtelCompat.getList;
+import static io.otel.pyroscope.OtelCompat.getString;
 
 
 public class PyroscopeOtelAutoConfigurationCustomizerProvider
         implements AutoConfigurationCustomizerProvider {
 
+    private static final String PROFILER_LOCK_PROPERTY = "pyroscope.profiler.lock";
 
     @Override
     public void customize(AutoConfigurationCustomizer autoConfiguration) {
         BootstrapApiInjector.ensureInjected();
 
-        autoConfiguration.addTracerProviderCustomizer((tpBuilder, cfg) -> {
-            if (ProfilerApiHolder.INSTANCE.get() == null) {
-                ProfilerApi api = tryLoadFromSystemClassLoader();
-                if (api == null) {
-                    api = ProfilerSdkFactory.create();
-                }
-                ProfilerApiHolder.INSTANCE.set(api);
+        // The context storage wrapper must be registered before the SDK (or anything else) touches the
+        // context, so it cannot wait for the tracer provider customizer below.
+        autoConfiguration.addPropertiesCustomizer(cfg -> {
+            if (getBoolean(cfg, "otel.pyroscope.context.storage", false)) {
+                PyroscopeContextStorage.install();
             }
+            return Collections.emptyMap();
+        });
 
+        autoConfiguration.addTracerProviderCustomizer((tpBuilder, cfg) -> {
             boolean startProfiling = getBoolean(cfg, "otel.pyroscope.start.profiling", true);
-            if (startProfiling) {
-                ProfilerApi profiler = ProfilerApiHolder.INSTANCE.get();
-                if (profiler.isProfilingStarted()) {
+            boolean spanWallClock = getBoolean(cfg, "otel.pyroscope.span.wall.enabled", false);
+            boolean latencyBoost = getBoolean(cfg, "otel.pyroscope.boost.enabled", false);
+            boolean baggageBoost = getBoolean(cfg, "otel.pyroscope.baggage.boost.enabled", false);
+            // Options that add threads to async-profiler's thread filter, which needs the wall and filter options.
+            List<String> filterOptions = new ArrayList<>();
+            if (spanWallClock) {
+                filterOptions.add("otel.pyroscope.span.wall.enabled");
+            }
+            if (latencyBoost) {
+                filterOptions.add("otel.pyroscope.boost.enabled");
+            }
+            if (baggageBoost) {
+                filterOptions.add("otel.pyroscope.baggage.boost.enabled");
+            }
+            if (!filterOptions.isEmpty()) {
+                if (ProfilerApiHolder.INSTANCE.get() != null) {
                     DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
-                            "Profiling is already started. " +
-                            "Running both pyroscope-java as -javaagent and the OTel extension is not recommended. " +
-                            "Use the OTel extension alone instead of combining it with -javaagent.");
-                } else {
-                    profiler.startProfiling();
+                            String.join(", ", filterOptions) + ": the profiler was created before the extension, " +
+                            "start it with async-profiler's wall and filter options for these options to have " +
+                            "an effect.");
                 }
+                SpanWallClock.configureProfiler(String.join(", ", filterOptions),
+                        getDuration(cfg, "otel.pyroscope.span.wall.interval", Duration.ofMillis(10)));
+            }
+            boolean spanLockWait = getBoolean(cfg, "otel.pyroscope.span.lock.wait", false);
+            if (spanLockWait) {
+                // Lock events are recorded with the thread's profiler context like CPU samples, so they get the
+                // span labels for free.
+                Duration threshold = getDuration(cfg, "otel.pyroscope.span.lock.threshold", Duration.ofMillis(10));
+                setProfilerDefault(PROFILER_LOCK_PROPERTY, Long.toString(threshold.toNanos()));
+            }
+            if (getBoolean(cfg, "otel.pyroscope.start.async", false)) {
+                Thread init = new Thread(() -> initProfilerAsync(startProfiling), "pyroscope-profiler-init");
+                init.setDaemon(true);
+                init.start();
+            } else {
+                initProfiler(startProfiling);
+                if (!filterOptions.isEmpty()
+                        && !AsyncProfilerThreadBoost.isSupported(ProfilerApiHolder.INSTANCE.get())) {
+                    DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
+                            String.join(", ", filterOptions) + " need the profiler bundled with the OTel extension, " +
+                            "which is not the one in use. Disabling them.");
+                    spanWallClock = false;
+                    latencyBoost = false;
+                    baggageBoost = false;
+                }
+            }
+
+            boolean contextStorage = getBoolean(cfg, "otel.pyroscope.context.storage", false);
+            if (contextStorage && !PyroscopeContextStorage.isInstalled()) {
+                DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
+                        "otel.pyroscope.context.storage is enabled, but the OTel context storage was initialized " +
+                        "before the Pyroscope wrapper could be added. Falling back to span start/end tracking.");
+                contextStorage = false;
+            }
+
+            Duration profileIdMinDuration = getDuration(cfg, "otel.pyroscope.profile.id.min.duration", Duration.ZERO);
+            if (!profileIdMinDuration.isZero() && !OtelCompat.hasOnEnding()) {
+                DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
+                        "otel.pyroscope.profile.id.min.duration needs OpenTelemetry SDK 1.42 or newer. " +
+                        "The pyroscope.profile.id attribute is added to all linked spans.");
+            }
+            boolean spanCpuTime = getBoolean(cfg, "otel.pyroscope.span.cpu.time", false);
+            boolean spanAllocBytes = getBoolean(cfg, "otel.pyroscope.span.alloc.bytes", false);
+            if ((spanCpuTime || spanAllocBytes || spanLockWait) && !OtelCompat.hasOnEnding()) {
+                DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
+                        "otel.pyroscope.span.cpu.time, otel.pyroscope.span.alloc.bytes and the " +
+                        "pyroscope.lock.wait.nanos attribute of otel.pyroscope.span.lock.wait need OpenTelemetry " +
+                        "SDK 1.42 or newer and are ignored.");
+            }
+
+            boolean jfrSpanEvents = getBoolean(cfg, "otel.pyroscope.jfr.span.events", false);
+            if (jfrSpanEvents && !OtelCompat.hasJfr()) {
+                DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
+                        "otel.pyroscope.jfr.span.events needs a JVM with JDK Flight Recorder (Java 11+ or 8u262+) " +
+                        "and is ignored.");
             }
 
             PyroscopeOtelConfiguration pyroOtelConfig = new PyroscopeOtelConfiguration.Builder()
                     .setRootSpanOnly(getBoolean(cfg, "otel.pyroscope.root.span.only", true))
                     .setAddSpanName(getBoolean(cfg, "otel.pyroscope.add.span.name", true))
+                    .setContextStorage(contextStorage)
+                    .setMaxSpanNames(getInt(cfg, "otel.pyroscope.span.name.max", 1024))
+                    .setSpanNameOverflow(getString(cfg, "otel.pyroscope.span.name.overflow", "other"))
+                    .setSpanNameNormalization(getList(cfg, "otel.pyroscope.span.name.normalize"))
+                    .setLinkSampledOnly(getBoolean(cfg, "otel.pyroscope.link.sampled.only", false))
+                    .setLinkRatio(getDouble(cfg, "otel.pyroscope.link.ratio", 1.0))
+                    .setProfileIdMinDuration(profileIdMinDuration)
+                    .setSpanCpuTime(spanCpuTime)
+                    .setSpanAllocBytes(spanAllocBytes)
+                    .setSpanLockWait(spanLockWait)
+                    .setBoost(latencyBoost)
+                    .setBoostQuantile(getDouble(cfg, "otel.pyroscope.boost.quantile", 0.99))
+                    .setBoostMinDuration(getDuration(cfg, "otel.pyroscope.boost.min.duration", Duration.ofMillis(50)))
+                    .setBoostMaxConcurrent(getInt(cfg, "otel.pyroscope.boost.max.concurrent", 4))
+                    .setBoostMaxPerSecond(getInt(cfg, "otel.pyroscope.boost.max.per.second", 10))
+                    .setBaggageBoost(baggageBoost)
+                    .setBaggageBoostKey(getString(cfg, "otel.pyroscope.baggage.boost.key", "pyroscope.profile"))
+                    .setBaggageBoostValue(getString(cfg, "otel.pyroscope.baggage.boost.value", "high"))
+                    .setBaggageBoostMaxConcurrent(getInt(cfg, "otel.pyroscope.baggage.boost.max.concurrent", 4))
+                    .setBaggageBoostMaxPerSecond(getInt(cfg, "otel.pyroscope.baggage.boost.max.per.second", 10))
+                    .setAttributeLabels(getList(cfg, "otel.pyroscope.span.attribute.labels"))
+                    .setMaxAttributeLabelValues(getInt(cfg, "otel.pyroscope.span.attribute.labels.max", 256))
+                    .setMetrics(getBoolean(cfg, "otel.pyroscope.metrics.enabled", false))
+                    .setGovernor(getBoolean(cfg, "otel.pyroscope.governor.enabled", false))
+                    .setGovernorCpuBudget(getDouble(cfg, "otel.pyroscope.governor.cpu.budget", 0.01))
+                    .setGovernorWindow(getDuration(cfg, "otel.pyroscope.governor.window", Duration.ofSeconds(10)))
+                    .setGovernorSampleRatio(getDouble(cfg, "otel.pyroscope.governor.sample.ratio", 0.1))
+                    .setJfrSpanEvents(jfrSpanEvents)
+                    .setTimelineSize(getInt(cfg, "otel.pyroscope.timeline.size", 0))
+                    .setTimelineMaxThreads(getInt(cfg, "otel.pyroscope.timeline.max.threads", 256))
+                    .setSpanWallClock(spanWallClock)
                     .build();
 
-            return tpBuilder.addSpanProcessor(
-                    new PyroscopeOtelSpanProcessor(pyroOtelConfig));
+            PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(pyroOtelConfig);
+            if (contextStorage) {
+                PyroscopeContextStorage.bind(processor);
+            }
+            if (getBoolean(cfg, VirtualThreadSupport.ENABLED_PROPERTY, false)) {
+                if (contextStorage) {
+                    VirtualThreadSupport.install(PyroscopeContextStorage::onVirtualThreadMount,
+                            PyroscopeContextStorage::onVirtualThreadUnmount);
+                } else {
+                    VirtualThreadSupport.install(processor::onVirtualThreadMount, processor::onVirtualThreadUnmount);
+                }
+            }
+            return tpBuilder.addSpanProcessor(OtelCompat.withOnEnding(processor));
         });
     }
 
+    private static void initProfiler(boolean startProfiling) {
+        if (ProfilerApiHolder.INSTANCE.get() == null) {
+            ProfilerApiHolder.INSTANCE.set(createProfiler());
+        }
+        if (startProfiling) {
+            startProfiling(ProfilerApiHolder.INSTANCE.get());
+        }
+    }
+
+    /**
+     * Creates and starts the profiler before publishing it, so the span processor keeps treating the holder as
+     * empty (and does nothing) until the profiler is fully up, then picks it up with its next span.
+     */
+    private static void initProfilerAsync(boolean startProfiling) {
+        try {
+            ProfilerApi api = ProfilerApiHolder.INSTANCE.get();
+            if (api != null) {
+                if (startProfiling) {
+                    startProfiling(api);
+                }
+                return;
+            }
+            api = createProfiler();
+            if (startProfiling) {
+                startProfiling(api);
+            }
+            if (!ProfilerApiHolder.INSTANCE.compareAndSet(null, api)) {
+                PyroscopeOtelDebug.log("AutoConfig: ProfilerApiHolder was set while the profiler was starting, keeping "
+                        + ProfilerApiHolder.INSTANCE.get());
+            }
+            PyroscopeOtelDebug.log("AutoConfig: Profiler started in the background");
+        } catch (Throwable t) {
+            DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.ERROR, "Failed to start the profiler: " + t);
+        }
+    }
+
+    /**
+     * Sets a pyroscope agent option for the profiler the extension creates, unless the user set it as a system
+     * property or environment variable.
+     */
+    private static void setProfilerDefault(String property, String value) {
+        String env = property.toUpperCase(Locale.ROOT).replace('.', '_');
+        if (System.getProperty(property) != null || System.getenv(env) != null) {
+            PyroscopeOtelDebug.log("AutoConfig: keeping the configured " + property);
+            return;
+        }
+        System.setProperty(property, value);
+        PyroscopeOtelDebug.log("AutoConfig: set " + property + "=" + value);
+    }
+
+    private static ProfilerApi createProfiler() {
+        ProfilerApi api = tryLoadFromSystemClassLoader();
+        if (api == null) {
+            api = ProfilerSdkFactory.create();
+        }
+        return api;
+    }
+
+    private static void startProfiling(ProfilerApi profiler) {
+        if (profiler.isProfilingStarted()) {
+            DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.WARN,
+                    "Profiling is already started. " +
+                    "Running both pyroscope-java as -javaagent and the OTel extension is not recommended. " +
+                    "Use the OTel extension alone instead of combining it with -javaagent.");
+        } else {
+            profiler.startProfiling();
+        }
+    }
+
     private static ProfilerApi tryLoadFromSystemClassLoader() {
         try {
             ClassLoader systemCL = ClassLoader.getSystemClassLoader();
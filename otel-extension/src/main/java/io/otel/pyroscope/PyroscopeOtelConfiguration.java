@@ -1,14 +1,82 @@
 package io.otel.pyroscope;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 
 public class PyroscopeOtelConfiguration {
     //todo think about removing both options, so that users don't need to configure or think about anything
     final boolean rootSpanOnly;
     final boolean addSpanName;
+    final boolean contextStorage;
+    final int maxSpanNames;
+    final String spanNameOverflow;
+    final int spanNameNormalization;
+    final boolean linkSampledOnly;
+    final double linkRatio;
+    final long profileIdMinDurationNanos;
+    final boolean spanCpuTime;
+    final boolean spanAllocBytes;
+    final boolean spanLockWait;
+    final boolean boost;
+    final double boostQuantile;
+    final long boostMinDurationNanos;
+    final int boostMaxConcurrent;
+    final int boostMaxPerSecond;
+    final boolean baggageBoost;
+    final String baggageBoostKey;
+    final String baggageBoostValue;
+    final int baggageBoostMaxConcurrent;
+    final int baggageBoostMaxPerSecond;
+    final List<String> attributeLabels;
+    final int maxAttributeLabelValues;
+    final boolean metrics;
+    final boolean governor;
+    final double governorCpuBudget;
+    final int governorWindowTicks;
+    final double governorSampleRatio;
+    final boolean jfrSpanEvents;
+    final int timelineSize;
+    final int timelineMaxThreads;
+    final boolean spanWallClock;
 
     private PyroscopeOtelConfiguration(Builder builder) {
         this.rootSpanOnly = builder.rootSpanOnly;
         this.addSpanName = builder.addSpanName;
+        this.contextStorage = builder.contextStorage;
+        this.maxSpanNames = builder.maxSpanNames;
+        this.spanNameOverflow = builder.spanNameOverflow;
+        this.spanNameNormalization = builder.spanNameNormalization;
+        this.linkSampledOnly = builder.linkSampledOnly;
+        this.linkRatio = builder.linkRatio;
+        this.profileIdMinDurationNanos = builder.profileIdMinDurationNanos;
+        this.spanCpuTime = builder.spanCpuTime;
+        this.spanAllocBytes = builder.spanAllocBytes;
+        this.spanLockWait = builder.spanLockWait;
+        this.boost = builder.boost;
+        this.boostQuantile = builder.boostQuantile;
+        this.boostMinDurationNanos = builder.boostMinDurationNanos;
+        this.boostMaxConcurrent = builder.boostMaxConcurrent;
+        this.boostMaxPerSecond = builder.boostMaxPerSecond;
+        this.baggageBoost = builder.baggageBoost;
+        this.baggageBoostKey = builder.baggageBoostKey;
+        this.baggageBoostValue = builder.baggageBoostValue;
+        this.baggageBoostMaxConcurrent = builder.baggageBoostMaxConcurrent;
+        this.baggageBoostMaxPerSecond = builder.baggageBoostMaxPerSecond;
+        this.attributeLabels = builder.attributeLabels;
+        this.maxAttributeLabelValues = builder.maxAttributeLabelValues;
+        this.metrics = builder.metrics;
+        this.governor = builder.governor;
+        this.governorCpuBudget = builder.governorCpuBudget;
+        this.governorWindowTicks = builder.governorWindowTicks;
+        this.governorSampleRatio = builder.governorSampleRatio;
+        this.jfrSpanEvents = builder.jfrSpanEvents;
+        this.timelineSize = builder.timelineSize;
+        this.timelineMaxThreads = builder.timelineMaxThreads;
+        this.spanWallClock = builder.spanWallClock;
     }
 
     @Override
@@ -16,12 +84,74 @@ public class PyroscopeOtelConfiguration {
         return "PyroscopeOtelConfiguration{" +
                 ", rootSpanOnly=" + rootSpanOnly +
                 ", addSpanName=" + addSpanName +
+                ", contextStorage=" + contextStorage +
+                ", maxSpanNames=" + maxSpanNames +
+                ", spanNameOverflow=" + spanNameOverflow +
+                ", spanNameNormalization=" + spanNameNormalization +
+                ", linkSampledOnly=" + linkSampledOnly +
+                ", linkRatio=" + linkRatio +
+                ", profileIdMinDurationNanos=" + profileIdMinDurationNanos +
+                ", spanCpuTime=" + spanCpuTime +
+                ", spanAllocBytes=" + spanAllocBytes +
+                ", spanLockWait=" + spanLockWait +
+                ", boost=" + boost +
+                ", boostQuantile=" + boostQuantile +
+                ", boostMinDurationNanos=" + boostMinDurationNanos +
+                ", boostMaxConcurrent=" + boostMaxConcurrent +
+                ", boostMaxPerSecond=" + boostMaxPerSecond +
+                ", baggageBoost=" + baggageBoost +
+                ", baggageBoostKey=" + baggageBoostKey +
+                ", baggageBoostValue=" + baggageBoostValue +
+                ", baggageBoostMaxConcurrent=" + baggageBoostMaxConcurrent +
+                ", baggageBoostMaxPerSecond=" + baggageBoostMaxPerSecond +
+                ", attributeLabels=" + attributeLabels +
+                ", maxAttributeLabelValues=" + maxAttributeLabelValues +
+                ", metrics=" + metrics +
+                ", governor=" + governor +
+                ", governorCpuBudget=" + governorCpuBudget +
+                ", governorWindowTicks=" + governorWindowTicks +
+                ", governorSampleRatio=" + governorSampleRatio +
+                ", jfrSpanEvents=" + jfrSpanEvents +
+                ", timelineSize=" + timelineSize +
+                ", timelineMaxThreads=" + timelineMaxThreads +
+                ", spanWallClock=" + spanWallClock +
                 '}';
     }
 
     public static class Builder {
         boolean rootSpanOnly = true;
         boolean addSpanName = true;
+        boolean contextStorage = false;
+        int maxSpanNames = 1024;
+        String spanNameOverflow = "other";
+        int spanNameNormalization = 0;
+        boolean linkSampledOnly = false;
+        double linkRatio = 1.0;
+        long profileIdMinDurationNanos = 0;
+        boolean spanCpuTime = false;
+        boolean spanAllocBytes = false;
+        boolean spanLockWait = false;
+        boolean boost = false;
+        double boostQuantile = 0.99;
+        long boostMinDurationNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        int boostMaxConcurrent = 4;
+        int boostMaxPerSecond = 10;
+        boolean baggageBoost = false;
+        String baggageBoostKey = "pyroscope.profile";
+        String baggageBoostValue = "high";
+        int baggageBoostMaxConcurrent = 4;
+        int baggageBoostMaxPerSecond = 10;
+        List<String> attributeLabels = Collections.emptyList();
+        int maxAttributeLabelValues = 256;
+        boolean metrics = false;
+        boolean governor = false;
+        double governorCpuBudget = 0.01;
+        int governorWindowTicks = 10;
+        double governorSampleRatio = 0.1;
+        boolean jfrSpanEvents = false;
+        int timelineSize = 0;
+        int timelineMaxThreads = 256;
+        boolean spanWallClock = false;
 
         public Builder() {
         }
@@ -36,6 +166,266 @@ public class PyroscopeOtelConfiguration {
             return this;
         }
 
+        /**
+         * Set the profiler context from the OTel context storage on every {@code makeCurrent()} instead of
+         * on span start and end, so that it follows spans across threads.
+         */
+        public Builder setContextStorage(boolean contextStorage) {
+            this.contextStorage = contextStorage;
+            return this;
+        }
+
+        /**
+         * Maximum number of distinct span names registered as profiler constants. Names seen after the limit is
+         * reached are labeled with the overflow name.
+         */
+        public Builder setMaxSpanNames(int maxSpanNames) {
+            this.maxSpanNames = Math.max(1, Math.min(maxSpanNames, 1 << 20));
+            return this;
+        }
+
+        public Builder setSpanNameOverflow(String spanNameOverflow) {
+            this.spanNameOverflow = spanNameOverflow;
+            return this;
+        }
+
+        /**
+         * Normalization rules applied to span names before they are registered: {@code numeric} collapses
+         * numeric path segments and {@code hex} collapses hex and UUID-like path segments into {@code {id}}.
+         *
+         * @throws IllegalArgumentException if a rule is unknown
+         */
+        public Builder setSpanNameNormalization(List<String> rules) {
+            this.spanNameNormalization = SpanNameCache.parseRules(rules);
+            return this;
+        }
+
+        /**
+         * Link only spans of sampled traces, i.e. traces that will actually be exported.
+         */
+        public Builder setLinkSampledOnly(boolean linkSampledOnly) {
+            this.linkSampledOnly = linkSampledOnly;
+            return this;
+        }
+
+        /**
+         * Fraction of traces, chosen deterministically from the trace id, whose spans are linked to profiles.
+         */
+        public Builder setLinkRatio(double linkRatio) {
+            this.linkRatio = linkRatio;
+            return this;
+        }
+
+        /**
+         * Add the {@code pyroscope.profile.id} attribute only to spans that last at least this long. Needs an SDK
+         * with span ending callbacks (1.42+); on older SDKs every linked span gets the attribute.
+         */
+        public Builder setProfileIdMinDuration(Duration minDuration) {
+            this.profileIdMinDurationNanos = Math.max(0, minDuration.toNanos());
+            return this;
+        }
+
+        /**
+         * Record the CPU time a linked span spent on the thread it started on as {@code pyroscope.cpu.nanos}.
+         * Needs an SDK with span ending callbacks (1.42+).
+         */
+        public Builder setSpanCpuTime(boolean spanCpuTime) {
+            this.spanCpuTime = spanCpuTime;
+            return this;
+        }
+
+        /**
+         * Record the bytes a linked span allocated on the thread it started on as {@code pyroscope.alloc.bytes}.
+         * Needs an SDK with span ending callbacks (1.42+) and a JVM with {@code com.sun.management.ThreadMXBean}.
+         */
+        public Builder setSpanAllocBytes(boolean spanAllocBytes) {
+            this.spanAllocBytes = spanAllocBytes;
+            return this;
+        }
+
+        /**
+         * Record the time a linked span was blocked entering monitors on the thread it started on as
+         * {@code pyroscope.lock.wait.nanos}, with millisecond resolution. Spans shorter than 1 ms or than
+         * {@link #setProfileIdMinDuration} get no value. Turns on JVM thread contention monitoring.
+         * Needs an SDK with span ending callbacks (1.42+).
+         */
+        public Builder setSpanLockWait(boolean spanLockWait) {
+            this.spanLockWait = spanLockWait;
+            return this;
+        }
+
+        /**
+         * Boost profiling of a thread while its root span runs longer than the {@link #setBoostQuantile quantile}
+         * of its span name (and at least {@link #setBoostMinDuration the minimum duration}).
+         */
+        public Builder setBoost(boolean boost) {
+            this.boost = boost;
+            return this;
+        }
+
+        public Builder setBoostQuantile(double boostQuantile) {
+            this.boostQuantile = Math.max(0.5, Math.min(boostQuantile, 0.9999));
+            return this;
+        }
+
+        public Builder setBoostMinDuration(Duration minDuration) {
+            this.boostMinDurationNanos = Math.max(0, minDuration.toNanos());
+            return this;
+        }
+
+        /**
+         * Maximum number of threads boosted at the same time.
+         */
+        public Builder setBoostMaxConcurrent(int boostMaxConcurrent) {
+            this.boostMaxConcurrent = Math.max(1, boostMaxConcurrent);
+            return this;
+        }
+
+        /**
+         * Maximum number of boosts started per second.
+         */
+        public Builder setBoostMaxPerSecond(int boostMaxPerSecond) {
+            this.boostMaxPerSecond = Math.max(1, boostMaxPerSecond);
+            return this;
+        }
+
+        /**
+         * Boost profiling of a thread while it runs a span whose parent context has the baggage entry
+         * {@link #setBaggageBoostKey key}={@link #setBaggageBoostValue value}, until that span ends.
+         */
+        public Builder setBaggageBoost(boolean baggageBoost) {
+            this.baggageBoost = baggageBoost;
+            return this;
+        }
+
+        public Builder setBaggageBoostKey(String baggageBoostKey) {
+            this.baggageBoostKey = baggageBoostKey;
+            return this;
+        }
+
+        public Builder setBaggageBoostValue(String baggageBoostValue) {
+            this.baggageBoostValue = baggageBoostValue;
+            return this;
+        }
+
+        /**
+         * Maximum number of threads boosted for marked requests at the same time.
+         */
+        public Builder setBaggageBoostMaxConcurrent(int baggageBoostMaxConcurrent) {
+            this.baggageBoostMaxConcurrent = Math.max(1, baggageBoostMaxConcurrent);
+            return this;
+        }
+
+        /**
+         * Maximum number of boosts started per second for marked requests.
+         */
+        public Builder setBaggageBoostMaxPerSecond(int baggageBoostMaxPerSecond) {
+            this.baggageBoostMaxPerSecond = Math.max(1, baggageBoostMaxPerSecond);
+            return this;
+        }
+
+        /**
+         * String span attributes (e.g. {@code http.route}) added as profile labels while a linked span is the
+         * current span of its thread. Only attributes present when the span starts are used.
+         */
+        public Builder setAttributeLabels(List<String> attributes) {
+            List<String> keys = new ArrayList<>();
+            for (String attribute : attributes) {
+                String key = attribute.trim();
+                if (!key.isEmpty() && !keys.contains(key)) {
+                    keys.add(key);
+                }
+            }
+            this.attributeLabels = Collections.unmodifiableList(keys);
+            return this;
+        }
+
+        /**
+         * Maximum number of distinct values per attribute label. Later values are labeled {@code other}.
+         */
+        public Builder setMaxAttributeLabelValues(int maxAttributeLabelValues) {
+            this.maxAttributeLabelValues = Math.max(1, Math.min(maxAttributeLabelValues, 1 << 16));
+            return this;
+        }
+
+        /**
+         * Record self-telemetry of the span processor, exported as {@code pyroscope.otel.span_processor.*} metrics.
+         */
+        public Builder setMetrics(boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Degrade linking step by step (no span names, then a {@link #setGovernorSampleRatio fraction} of traces,
+         * then root spans only) while the span processor uses more than its {@link #setGovernorCpuBudget budget}
+         * of CPU, and restore it when the load drops.
+         */
+        public Builder setGovernor(boolean governor) {
+            this.governor = governor;
+            return this;
+        }
+
+        /**
+         * Share of the machine's CPU capacity (all cores) the span processor may use, e.g. {@code 0.01} for 1%.
+         */
+        public Builder setGovernorCpuBudget(double governorCpuBudget) {
+            this.governorCpuBudget = Math.max(0.0001, Math.min(governorCpuBudget, 1.0));
+            return this;
+        }
+
+        /**
+         * Sliding window the CPU share is measured over, rounded to whole seconds.
+         */
+        public Builder setGovernorWindow(Duration window) {
+            long ticks = window.toMillis() / OverheadGovernor.TICK_MILLIS;
+            this.governorWindowTicks = (int) Math.max(1, Math.min(ticks, 3600));
+            return this;
+        }
+
+        /**
+         * Fraction of the otherwise linked traces that stay linked at the governor's sampled level.
+         */
+        public Builder setGovernorSampleRatio(double governorSampleRatio) {
+            this.governorSampleRatio = Math.max(0.0, Math.min(governorSampleRatio, 1.0));
+            return this;
+        }
+
+        /**
+         * Commit {@code io.pyroscope.otel.SpanStart} / {@code SpanEnd} JFR events for linked spans. The events are
+         * disabled in JFR by default and only recorded by recordings that enable them. Ignored without JFR.
+         */
+        public Builder setJfrSpanEvents(boolean jfrSpanEvents) {
+            this.jfrSpanEvents = jfrSpanEvents;
+            return this;
+        }
+
+        /**
+         * Keep the last {@code timelineSize} ended spans of each thread in memory for JMX dumps. Rounded up to a
+         * power of two, 0 disables the timeline.
+         */
+        public Builder setTimelineSize(int timelineSize) {
+            this.timelineSize = timelineSize <= 0 ? 0 : Math.min(timelineSize, SpanTimeline.MAX_CAPACITY);
+            return this;
+        }
+
+        /**
+         * Maximum number of threads with a timeline ring. Threads beyond it record nothing.
+         */
+        public Builder setTimelineMaxThreads(int timelineMaxThreads) {
+            this.timelineMaxThreads = Math.max(1, timelineMaxThreads);
+            return this;
+        }
+
+        /**
+         * Keep threads in async-profiler's thread filter while a linked span is current on them, so that a profiler
+         * started with wall-clock sampling and the {@code filter} option only samples threads working on a span.
+         */
+        public Builder setSpanWallClock(boolean spanWallClock) {
+            this.spanWallClock = spanWallClock;
+            return this;
+        }
+
         public PyroscopeOtelConfiguration build() {
             return new PyroscopeOtelConfiguration(this);
         }
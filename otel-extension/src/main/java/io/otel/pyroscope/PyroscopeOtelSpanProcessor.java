@@ -3,22 +3,123 @@ package io.otel.pyroscope;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
 import io.opentelemetry.sdk.trace.ReadWriteSpan;
 import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SpanProcessor;
 
 import io.pyroscope.javaagent.api.ProfilerApi;
 import io.pyroscope.javaagent.api.ProfilerApiHolder;
+import io.pyroscope.javaagent.api.ProfilerScopedContext;
 
 
 public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
 
     private static final AttributeKey<String> ATTRIBUTE_KEY_PROFILE_ID = AttributeKey.stringKey("pyroscope.profile.id");
+    private static final AttributeKey<Long> ATTRIBUTE_KEY_CPU_NANOS = AttributeKey.longKey("pyroscope.cpu.nanos");
+    private static final AttributeKey<Long> ATTRIBUTE_KEY_ALLOC_BYTES = AttributeKey.longKey("pyroscope.alloc.bytes");
+    // Millisecond resolution, see ThreadCounters#blockedTime().
+    private static final AttributeKey<Long> ATTRIBUTE_KEY_LOCK_WAIT_NANOS =
+            AttributeKey.longKey("pyroscope.lock.wait.nanos");
+    // Semantic convention attributes the Java agent sets from the thread that started the span.
+    private static final AttributeKey<Long> THREAD_ID = AttributeKey.longKey("thread.id");
+    private static final AttributeKey<String> THREAD_NAME = AttributeKey.stringKey("thread.name");
 
-    private final PyroscopeOtelConfiguration configuration;
+    static final long PROFILER_WATCH_MILLIS = 1000;
+
+    // No initial value: the virtual thread hooks and onEnd look the stack up without creating one. The first lookup
+    // on a thread still creates its ThreadLocalMap.
+    private static final ThreadLocal<SpanContextStack> STACK = new ThreadLocal<>();
+
+    final PyroscopeOtelConfiguration configuration;
+    private final SpanNameCache spanNames;
+    // The configured sampler. Spans are always ended with it: the policy only ever links fewer spans.
+    private final LinkSampler linkSampler;
+    private volatile LinkPolicy policy;
+    private final OverheadGovernor governor;
+    private final boolean profileIdOnEnding;
+    private final boolean cpuTime;
+    private final boolean allocBytes;
+    private final boolean lockWait;
+    // Shorter spans would only ever show 0 at the counter's resolution; they do not read it at end.
+    private final long lockWaitMinNanos;
+    private final boolean threadCounters;
+    // Linked spans get a stack frame in context storage mode too, so that their end sees the start's decision.
+    private final boolean endFrames;
+    private final LatencyBoostController latencyBoost;
+    private final BaggageBoostController baggageBoost;
+    private final ProfilingBoost wallClockFilter;
+    private final SpanAttributeLabels attributeLabels;
+    private final SpanProcessorMetrics metrics;
+    private final boolean jfrEvents;
+    private final SpanTimeline timeline;
+    private volatile ProfilerBinding binding = ProfilerBinding.NONE;
+    // Guarded by this. Only runs while a published profiler is not profiling yet.
+    private Thread profilerWatch;
+    private boolean shutdown;
 
     public PyroscopeOtelSpanProcessor(PyroscopeOtelConfiguration configuration) {
         this.configuration = configuration;
+        this.spanNames = new SpanNameCache(configuration.maxSpanNames, configuration.spanNameOverflow,
+                configuration.spanNameNormalization);
+        this.linkSampler = new LinkSampler(configuration.linkSampledOnly, configuration.linkRatio);
+        this.policy = LinkPolicy.of(configuration);
+        this.profileIdOnEnding = configuration.profileIdMinDurationNanos > 0 && OtelCompat.hasOnEnding();
+        this.cpuTime = configuration.spanCpuTime && OtelCompat.hasOnEnding() && ThreadCounters.enableCpuTime();
+        this.allocBytes = configuration.spanAllocBytes && OtelCompat.hasOnEnding()
+                && ThreadCounters.enableAllocatedBytes();
+        this.lockWait = configuration.spanLockWait && OtelCompat.hasOnEnding() && ThreadCounters.enableBlockedTime();
+        this.lockWaitMinNanos = Math.max(configuration.profileIdMinDurationNanos,
+                ThreadCounters.BLOCKED_TIME_RESOLUTION_NANOS);
+        this.threadCounters = cpuTime || allocBytes || lockWait;
+        ProfilingBoost threadBoost = new AsyncProfilerThreadBoost();
+        if (configuration.boost) {
+            this.latencyBoost = new LatencyBoostController(configuration.boostQuantile,
+                    configuration.boostMinDurationNanos, configuration.boostMaxConcurrent,
+                    configuration.boostMaxPerSecond, configuration.maxSpanNames, configuration.spanNameNormalization,
+                    threadBoost);
+            this.latencyBoost.start();
+        } else {
+            this.latencyBoost = null;
+        }
+        if (configuration.baggageBoost) {
+            this.baggageBoost = new BaggageBoostController(configuration.baggageBoostKey,
+                    configuration.baggageBoostValue, configuration.baggageBoostMaxConcurrent,
+                    configuration.baggageBoostMaxPerSecond, threadBoost);
+        } else {
+            this.baggageBoost = null;
+        }
+        this.wallClockFilter = configuration.spanWallClock ? threadBoost : null;
+        if (configuration.attributeLabels.isEmpty()) {
+            this.attributeLabels = null;
+        } else {
+            this.attributeLabels = new SpanAttributeLabels(configuration.attributeLabels,
+                    configuration.maxAttributeLabelValues);
+        }
+        this.jfrEvents = configuration.jfrSpanEvents && OtelCompat.hasJfr();
+        if (configuration.timelineSize > 0) {
+            this.timeline = new SpanTimeline(configuration.timelineSize, configuration.timelineMaxThreads,
+                    spanNames::names);
+            this.timeline.registerMBean();
+        } else {
+            this.timeline = null;
+        }
+        this.endFrames = threadCounters || profileIdOnEnding || latencyBoost != null || jfrEvents || timeline != null;
+        if (configuration.governor) {
+            this.governor = new OverheadGovernor(configuration.governorCpuBudget, configuration.governorWindowTicks,
+                    Runtime.getRuntime().availableProcessors(), this::setGovernorLevel);
+            this.governor.start();
+        } else {
+            this.governor = null;
+        }
+        if (configuration.metrics) {
+            spanNames.countLookups();
+            this.metrics = new SpanProcessorMetrics(spanNames::size, spanNames::lookups, spanNames::misses, governor);
+            this.metrics.publish();
+        } else {
+            this.metrics = null;
+        }
+        getProfiler();
     }
 
     @Override
@@ -31,42 +132,519 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
         return true;
     }
 
-    private ProfilerApi getProfiler() {
-        return ProfilerApiHolder.INSTANCE.get();
+    /**
+     * Returns the binding for the ProfilerApi currently published in {@link ProfilerApiHolder}, re-resolving it
+     * only when the holder was swapped.
+     */
+    ProfilerBinding getProfiler() {
+        ProfilerApi api = ProfilerApiHolder.INSTANCE.get();
+        ProfilerBinding b = binding;
+        if (b.api != api) {
+            if (metrics != null) {
+                metrics.profilerBound(api, b != ProfilerBinding.NONE);
+            }
+            b = ProfilerBinding.bind(api);
+            binding = b;
+            if (b.api != null && !b.active) {
+                startProfilerWatch();
+            }
+        }
+        return b;
+    }
+
+    private synchronized void startProfilerWatch() {
+        if (profilerWatch != null || shutdown) {
+            return;
+        }
+        profilerWatch = new Thread(this::watchProfiler, "pyroscope-profiler-watch");
+        profilerWatch.setDaemon(true);
+        profilerWatch.start();
+    }
+
+    synchronized boolean isWatchingProfiler() {
+        return profilerWatch != null;
+    }
+
+    /**
+     * Re-checks whether the bound profiler is profiling, see {@link ProfilerBinding#active}, until it is. Holder
+     * swaps are picked up by the next span, which starts a new watch if the new profiler is not profiling; this
+     * catches profiling being started later on the same instance.
+     */
+    private void watchProfiler() {
+        while (true) {
+            try {
+                Thread.sleep(PROFILER_WATCH_MILLIS);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    profilerWatch = null;
+                }
+                return;
+            }
+            ProfilerBinding b = getProfiler();
+            if (b.api != null && !b.refreshActive()) {
+                continue;
+            }
+            synchronized (this) {
+                // A binding made since then did not start a watch of its own while this one was running.
+                ProfilerBinding current = binding;
+                if (current == b || current.api == null || current.active) {
+                    profilerWatch = null;
+                    return;
+                }
+            }
+        }
     }
 
     @Override
     public void onStart(Context parentContext, ReadWriteSpan span) {
-        if (configuration.rootSpanOnly && !isRootSpan(span)) {
+        ProfilerBinding profiler = getProfiler();
+        if (!profiler.active) {
+            // No profiler published, or it is not profiling: nothing to link to and nothing to boost.
+            return;
+        }
+        SpanProcessorMetrics m = metrics;
+        OverheadGovernor g = governor;
+        boolean sample = g != null && OverheadGovernor.shouldSample();
+        if (m == null && !sample) {
+            start(parentContext, span, profiler);
             return;
         }
-        ProfilerApi api = getProfiler();
+        long t0 = System.nanoTime();
+        boolean linked = start(parentContext, span, profiler);
+        long elapsed = System.nanoTime() - t0;
+        if (sample) {
+            g.recordSample(elapsed);
+        }
+        if (m != null) {
+            if (linked) {
+                m.linked.increment();
+            } else {
+                m.skipped.increment();
+            }
+            m.onStart.record(elapsed);
+        }
+    }
+
+    /**
+     * Returns true if the span is linked to profiles.
+     */
+    private boolean start(Context parentContext, ReadWriteSpan span, ProfilerBinding profiler) {
+        if (baggageBoost != null) {
+            // Independent of linking: a marked request is boosted on every thread it starts a span on.
+            baggageBoost.onStart(parentContext, span);
+        }
+        LinkPolicy policy = this.policy;
+        if (policy.rootSpanOnly && !isRootSpan(span)) {
+            return false;
+        }
+        if (!policy.sampler.shouldLink(span.getSpanContext())) {
+            return false;
+        }
+        if (latencyBoost != null && (policy.rootSpanOnly || isRootSpan(span))) {
+            latencyBoost.onStart(span);
+        }
+        if (jfrEvents) {
+            SpanJfrEvents.spanStart(this, policy, profiler.api, span);
+        }
         String strProfileId = span.getSpanContext().getSpanId();
+        if (configuration.contextStorage) {
+            // PyroscopeContextStorage sets the profiler context when the span is made current.
+            if (!profileIdOnEnding) {
+                span.setAttribute(ATTRIBUTE_KEY_PROFILE_ID, strProfileId);
+            }
+            if (endFrames) {
+                SpanContextStack stack = stack();
+                stack.push(span, 0, 0, 0, 0, cpuStart(), allocStart(), lockStart(stack));
+            }
+            return true;
+        }
         long spanId = parseSpanId(strProfileId);
         long spanName;
-        if (configuration.addSpanName) {
-            spanName = api.registerConstant(span.getName());
+        if (policy.addSpanName) {
+            spanName = spanNameId(profiler.api, span.getName());
         } else {
             spanName = 0;
         }
-
-        span.setAttribute(ATTRIBUTE_KEY_PROFILE_ID, strProfileId);
-        api.setTracingContext(spanId, spanName);
+        // W3C trace ID is 32 hex chars (128 bits). Parse directly into two longs
+        // to avoid the String#substring allocations on this hot path.
+        String traceId = span.getSpanContext().getTraceId();
+        long traceIdHigh;
+        long traceIdLow;
         try {
-            api.setTraceId(span.getSpanContext().getTraceId());
+            traceIdHigh = parseHex64(traceId, 0);
+            traceIdLow = parseHex64(traceId, 16);
         } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            api.clearTraceId();
+            traceIdHigh = 0;
+            traceIdLow = 0;
+        }
+
+        if (!profileIdOnEnding) {
+            span.setAttribute(ATTRIBUTE_KEY_PROFILE_ID, strProfileId);
+        }
+        SpanContextStack stack = stack();
+        stack.push(span, spanId, spanName, traceIdHigh, traceIdLow, cpuStart(), allocStart(), lockStart(stack));
+        writeContext(profiler, stack, spanId, spanName, traceIdHigh, traceIdLow, traceId);
+        if (wallClockFilter != null && !stack.wallClockMarked) {
+            stack.wallClockMarked = enterWallClock(Thread.currentThread());
+        }
+        if (attributeLabels != null) {
+            applyAttributeLabels(stack, profiler, span);
+        }
+        return true;
+    }
+
+    /**
+     * For a span that is not on this thread's stack: whether it may have been linked on another thread. The agent
+     * records the starting thread in {@code thread.id}, which tells such a span from one this thread did not link.
+     * Without it, the current policy decides.
+     */
+    private boolean linkedElsewhere(ReadableSpan span) {
+        Long startThread = span.getAttribute(THREAD_ID);
+        if (startThread != null && startThread == Thread.currentThread().getId()) {
+            return false;
+        }
+        LinkPolicy policy = this.policy;
+        return (!policy.rootSpanOnly || isRootSpan(span)) && policy.sampler.shouldLink(span.getSpanContext());
+    }
+
+    boolean isOnEndingRequired() {
+        return profileIdOnEnding || threadCounters;
+    }
+
+    /**
+     * Called through {@link EndingSpanProcessor} once the span's end time is known. The profiler context was set
+     * at start regardless, so a short span only loses the attribute, which would point to (almost) no samples.
+     */
+    void onEnding(ReadWriteSpan span) {
+        if (configuration.rootSpanOnly && !isRootSpan(span)) {
+            return;
+        }
+        if (!linkSampler.shouldLink(span.getSpanContext())) {
+            return;
+        }
+        SpanContextStack stack = STACK.get();
+        int frame = stack == null ? -1 : stack.indexOf(span);
+        if (frame < 0 && !linkedElsewhere(span)) {
+            return;
+        }
+        // Without a minimum duration the attribute was already added at start.
+        long minDuration = configuration.profileIdMinDurationNanos;
+        if (minDuration > 0 && span.getLatencyNanos() >= minDuration) {
+            span.setAttribute(ATTRIBUTE_KEY_PROFILE_ID, span.getSpanContext().getSpanId());
+        }
+        if (threadCounters) {
+            // Only the thread the span started on knows its start counters. Spans ending on another thread
+            // get no attributes rather than a meaningless difference between two threads' counters.
+            if (frame < 0) {
+                return;
+            }
+            if (cpuTime) {
+                span.setAttribute(ATTRIBUTE_KEY_CPU_NANOS, ThreadCounters.cpuTime() - stack.cpuStart(frame));
+            }
+            if (allocBytes) {
+                long allocated = ThreadCounters.allocatedBytes();
+                long start = stack.allocStart(frame);
+                if (allocated >= 0 && start >= 0) {
+                    span.setAttribute(ATTRIBUTE_KEY_ALLOC_BYTES, allocated - start);
+                }
+            }
+            if (lockWait && span.getLatencyNanos() >= lockWaitMinNanos) {
+                long blocked = ThreadCounters.blockedTime();
+                long start = stack.lockStart(frame);
+                if (blocked >= 0 && start >= 0) {
+                    span.setAttribute(ATTRIBUTE_KEY_LOCK_WAIT_NANOS, blocked - start);
+                }
+            }
         }
     }
 
     @Override
     public void onEnd(ReadableSpan span) {
+        if (!binding.active) {
+            SpanContextStack stack = STACK.get();
+            if (stack == null || stack.isEmpty()) {
+                // Nothing linked on this thread. A baggage boost started before profiling stopped still ends.
+                if (baggageBoost != null) {
+                    baggageBoost.onEnd(span);
+                }
+                return;
+            }
+            // Profiling stopped while spans were linked here: unwind them so no stale context is left behind.
+        }
+        SpanProcessorMetrics m = metrics;
+        OverheadGovernor g = governor;
+        boolean sample = g != null && OverheadGovernor.shouldSample();
+        if (m == null && !sample) {
+            end(span);
+            return;
+        }
+        long t0 = System.nanoTime();
+        end(span);
+        long elapsed = System.nanoTime() - t0;
+        if (sample) {
+            g.recordSample(elapsed);
+        }
+        if (m != null) {
+            m.onEnd.record(elapsed);
+        }
+    }
+
+    /**
+     * A span is linked if start pushed its frame, whatever the current {@link LinkPolicy} says, so everything done
+     * at start is undone exactly once. The configuration, which every policy narrows, filters out the other spans
+     * before the stack is searched.
+     */
+    private void end(ReadableSpan span) {
+        if (baggageBoost != null) {
+            baggageBoost.onEnd(span);
+        }
+        if (configuration.contextStorage && !endFrames) {
+            return;
+        }
         if (configuration.rootSpanOnly && !isRootSpan(span)) {
             return;
         }
-        ProfilerApi api = getProfiler();
-        api.setTracingContext(0, 0);
-        api.clearTraceId();
+        if (!linkSampler.shouldLink(span.getSpanContext())) {
+            return;
+        }
+        SpanContextStack stack = STACK.get();
+        int frame = stack == null ? -1 : stack.indexOf(span);
+        if (frame < 0 && !linkedElsewhere(span)) {
+            return;
+        }
+        if (latencyBoost != null && (configuration.rootSpanOnly || isRootSpan(span))) {
+            latencyBoost.onEnd(span);
+        }
+        if (jfrEvents) {
+            ProfilerApi api = getProfiler().api;
+            if (api != null) {
+                SpanJfrEvents.spanEnd(this, policy, api, span);
+            }
+        }
+        if (timeline != null) {
+            recordTimeline(span);
+        }
+        if (frame < 0) {
+            // Started on another thread: the frame is dropped there once it reaches the top.
+            return;
+        }
+        if (!stack.remove(span) || configuration.contextStorage) {
+            // Not the innermost span of this thread, or the context storage owns the context: it stays.
+            return;
+        }
+        if (stack.wallClockMarked && stack.isEmpty()) {
+            stack.wallClockMarked = false;
+            exitWallClock(Thread.currentThread());
+        }
+        ProfilerBinding profiler = getProfiler();
+        if (profiler.api == null) {
+            return;
+        }
+        if (stack.isEmpty()) {
+            profiler.clearContext();
+            stack.traceIdCleared();
+        } else {
+            writeContext(profiler, stack, stack.topSpanId(), stack.topSpanName(), stack.topTraceIdHigh(),
+                    stack.topTraceIdLow(), stack.topSpan().getSpanContext().getTraceId());
+        }
+    }
+
+    /**
+     * Sets the profiler context, leaving out the trace id when the thread already has it: a child span, or the
+     * parent it returns to, is almost always of the same trace. That saves one of the two native calls.
+     */
+    private static void writeContext(ProfilerBinding profiler, SpanContextStack stack, long spanId, long spanName,
+                                     long traceIdHigh, long traceIdLow, String traceId) {
+        if (stack.hasTraceId(profiler, traceIdHigh, traceIdLow)) {
+            profiler.setSpanContext(spanId, spanName);
+            return;
+        }
+        profiler.setContext(spanId, spanName, traceId);
+        stack.traceIdWritten(profiler, traceIdHigh, traceIdLow);
+    }
+
+    /**
+     * Called on the carrier thread when a virtual thread mounts: puts the context of the virtual thread's current
+     * span back on the carrier. See {@link VirtualThreadSupport}.
+     */
+    void onVirtualThreadMount() {
+        SpanContextStack stack = STACK.get();
+        if (stack == null || stack.isEmpty()) {
+            return;
+        }
+        ProfilerBinding profiler = binding;
+        if (profiler.api != null) {
+            // The carrier's trace id is unknown, always write it.
+            profiler.setContext(stack.topSpanId(), stack.topSpanName(), stack.topSpan().getSpanContext().getTraceId());
+            stack.traceIdWritten(profiler, stack.topTraceIdHigh(), stack.topTraceIdLow());
+        }
+    }
+
+    /**
+     * Called on the carrier thread when a virtual thread unmounts: clears the context the virtual thread set, so
+     * whatever runs on the carrier next is not sampled with it.
+     */
+    void onVirtualThreadUnmount() {
+        SpanContextStack stack = STACK.get();
+        if (stack == null || stack.isEmpty()) {
+            return;
+        }
+        ProfilerBinding profiler = binding;
+        if (profiler.api != null) {
+            profiler.clearContext();
+            stack.traceIdCleared();
+        }
+    }
+
+    private static SpanContextStack stack() {
+        SpanContextStack stack = STACK.get();
+        if (stack == null) {
+            stack = new SpanContextStack(VirtualThreadSupport.isInstalled()
+                    || !VirtualThreadSupport.isVirtual(Thread.currentThread()));
+            STACK.set(stack);
+        }
+        return stack;
+    }
+
+    // ProfilerApi is the only interface shared with a profiler from another class loader, and createScopedContext
+    // is its only way to set labels. The first span of a label combination creates the scoped context, later ones
+    // activate it again; only if the binding cannot do that is a scoped context created per span.
+    private void applyAttributeLabels(SpanContextStack stack, ProfilerBinding profiler, ReadableSpan span) {
+        SpanAttributeLabels.Combination combination = attributeLabels.combination(span);
+        if (combination == null || profiler.api == null) {
+            return;
+        }
+        ProfilerBinding.LabelContext context = combination.context;
+        if (context != null && context.binding == profiler) {
+            context.activate();
+            stack.setTopLabels(context);
+            return;
+        }
+        stack.setTopLabels(createLabelContext(combination, profiler));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ProfilerScopedContext createLabelContext(SpanAttributeLabels.Combination combination,
+                                                            ProfilerBinding profiler) {
+        synchronized (combination) {
+            ProfilerBinding.LabelContext context = combination.context;
+            if (context != null && context.binding == profiler) {
+                context.activate();
+                return context;
+            }
+            ProfilerScopedContext scopedContext = profiler.api.createScopedContext(combination.labels());
+            context = profiler.labelContext(scopedContext);
+            if (context == null) {
+                return scopedContext;
+            }
+            combination.context = context;
+            return context;
+        }
+    }
+
+    private void recordTimeline(ReadableSpan span) {
+        SpanContext spanContext = span.getSpanContext();
+        long spanId = parseSpanId(spanContext.getSpanId());
+        String traceId = spanContext.getTraceId();
+        long traceIdHigh;
+        long traceIdLow;
+        try {
+            traceIdHigh = parseHex64(traceId, 0);
+            traceIdLow = parseHex64(traceId, 16);
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            traceIdHigh = 0;
+            traceIdLow = 0;
+        }
+        long spanName = policy.addSpanName ? spanNameId(binding.api, span.getName()) : 0;
+        long end = System.nanoTime();
+        // The agent adds the starting thread to every span. Without it, the span is put on the ending thread.
+        Long threadId = span.getAttribute(THREAD_ID);
+        if (threadId != null) {
+            timeline.record(spanId, traceIdHigh, traceIdLow, spanName, end - span.getLatencyNanos(), end,
+                    threadId, span.getAttribute(THREAD_NAME));
+        } else {
+            timeline.record(spanId, traceIdHigh, traceIdLow, spanName, end - span.getLatencyNanos(), end);
+        }
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        if (latencyBoost != null) {
+            latencyBoost.close();
+        }
+        if (baggageBoost != null) {
+            baggageBoost.close();
+        }
+        if (governor != null) {
+            governor.close();
+        }
+        synchronized (this) {
+            shutdown = true;
+            if (profilerWatch != null) {
+                profilerWatch.interrupt();
+            }
+        }
+        if (timeline != null) {
+            timeline.unregisterMBean();
+        }
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private long cpuStart() {
+        return cpuTime ? ThreadCounters.cpuTime() : 0;
+    }
+
+    private long allocStart() {
+        return allocBytes ? ThreadCounters.allocatedBytes() : 0;
+    }
+
+    /**
+     * A reading taken on this thread less than the counter's resolution ago is as good as a new one: nested spans
+     * starting together share it.
+     */
+    private long lockStart(SpanContextStack stack) {
+        if (!lockWait) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        if (now - stack.blockedReadNanos < ThreadCounters.BLOCKED_TIME_RESOLUTION_NANOS && stack.blockedRead >= 0) {
+            return stack.blockedRead;
+        }
+        long blocked = ThreadCounters.blockedTime();
+        stack.blockedReadNanos = now;
+        stack.blockedRead = blocked;
+        return blocked;
+    }
+
+    /**
+     * Adds a thread that a linked span became current on to the profiler's thread filter, see
+     * {@link SpanWallClock}. Returns false if span wall-clock profiling is off or the filter is not available, in
+     * which case {@link #exitWallClock(Thread)} must not be called.
+     */
+    boolean enterWallClock(Thread thread) {
+        return wallClockFilter != null && wallClockFilter.start(thread);
+    }
+
+    void exitWallClock(Thread thread) {
+        if (wallClockFilter != null) {
+            wallClockFilter.stop(thread);
+        }
+    }
+
+    LinkPolicy policy() {
+        return policy;
+    }
+
+    SpanTimeline timeline() {
+        return timeline;
+    }
+
+    void setGovernorLevel(int level) {
+        policy = LinkPolicy.forLevel(configuration, configuration.governorSampleRatio, level);
+    }
+
+    long spanNameId(ProfilerApi api, String name) {
+        return spanNames.id(api, name);
     }
 
     public static long parseSpanId(String strProfileId) {
@@ -80,6 +658,25 @@ public final class PyroscopeOtelSpanProcessor implements SpanProcessor {
         }
     }
 
+    static long parseHex64(String s, int offset) {
+        long result = 0L;
+        for (int i = 0; i < 16; i++) {
+            int c = s.charAt(offset + i);
+            int nibble;
+            if (c >= '0' && c <= '9') {
+                nibble = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                nibble = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                nibble = c - 'A' + 10;
+            } else {
+                throw new NumberFormatException("invalid hex char in trace_id at index " + (offset + i));
+            }
+            result = (result << 4) | nibble;
+        }
+        return result;
+    }
+
     public static boolean isRootSpan(ReadableSpan span) {
         SpanContext parent = span.getParentSpanContext();
         boolean noParent = parent == SpanContext.getInvalid();
@@ -0,0 +1,172 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the values of an allowlist of span attributes to profile label sets.
+ *
+ * Each key keeps its distinct values up to a hard cap, values past the cap become {@link #OVERFLOW}. Label maps
+ * are built once per combination of values and cached in a trie with one level per key, so resolving the labels
+ * of a span only does hash lookups on the attribute value strings the span already holds. Once the trie holds
+ * {@link #MAX_COMBINATIONS} combinations, new values become {@link #OVERFLOW} too, so a span always keeps the
+ * allowlisted keys. Each combination also holds the profiler's scoped context for its labels once a span created
+ * it, so later spans with the same labels only activate it again.
+ */
+final class SpanAttributeLabels {
+
+    static final String OVERFLOW = "other";
+    private static final String ABSENT = "";
+    static final int MAX_COMBINATIONS = 4096;
+
+    private final AttributeKey<String>[] keys;
+    private final String[] labelNames;
+    private final int maxValues;
+    private final ConcurrentHashMap<String, String>[] values;
+    private final Combination root = new Combination();
+    private int combinations;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SpanAttributeLabels(Collection<String> attributes, int maxValues) {
+        this.keys = new AttributeKey[attributes.size()];
+        this.labelNames = new String[attributes.size()];
+        this.values = new ConcurrentHashMap[attributes.size()];
+        int i = 0;
+        for (String attribute : attributes) {
+            keys[i] = AttributeKey.stringKey(attribute);
+            labelNames[i] = labelName(attribute);
+            values[i] = new ConcurrentHashMap<>();
+            i++;
+        }
+        this.maxValues = maxValues;
+    }
+
+    /**
+     * Returns the labels for the allowlisted attributes {@code span} currently has, or null if it has none of them.
+     */
+    Map<String, String> labels(ReadableSpan span) {
+        Combination combination = combination(span);
+        return combination == null ? null : combination.labels();
+    }
+
+    /**
+     * Returns the combination of the allowlisted attributes {@code span} currently has, or null if it has none of
+     * them.
+     */
+    Combination combination(ReadableSpan span) {
+        Combination node = root;
+        boolean any = false;
+        for (int i = 0; i < keys.length; i++) {
+            String value = span.getAttribute(keys[i]);
+            if (value == null) {
+                value = ABSENT;
+            } else {
+                value = canonical(i, value);
+                any = true;
+            }
+            Combination next = node.children.get(value);
+            if (next == null) {
+                next = addChild(node, value);
+            }
+            node = next;
+        }
+        return any ? node : null;
+    }
+
+    private String canonical(int key, String value) {
+        ConcurrentHashMap<String, String> known = values[key];
+        String canonical = known.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (known.size() >= maxValues) {
+            return OVERFLOW;
+        }
+        String previous = known.putIfAbsent(value, value);
+        return previous != null ? previous : value;
+    }
+
+    private synchronized Combination addChild(Combination parent, String value) {
+        Combination child = parent.children.get(value);
+        if (child != null) {
+            return child;
+        }
+        if (combinations >= MAX_COMBINATIONS && !OVERFLOW.equals(value)) {
+            // One overflow child per node at most, so the trie stays bounded past the cap.
+            return addChild(parent, OVERFLOW);
+        }
+        combinations++;
+        child = new Combination(parent, value);
+        parent.children.put(value, child);
+        return child;
+    }
+
+    private Map<String, String> buildLabels(Combination leaf) {
+        String[] path = new String[keys.length];
+        Combination node = leaf;
+        for (int i = keys.length - 1; i >= 0; i--) {
+            path[i] = node.value;
+            node = node.parent;
+        }
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            if (!ABSENT.equals(path[i])) {
+                labels.put(labelNames[i], path[i]);
+            }
+        }
+        labels = Collections.unmodifiableMap(labels);
+        leaf.labels = labels;
+        return labels;
+    }
+
+    /**
+     * Profile label names only allow {@code [a-zA-Z_][a-zA-Z0-9_]*}: {@code http.route} becomes {@code http_route}.
+     */
+    static String labelName(String attribute) {
+        StringBuilder sb = new StringBuilder(attribute.length() + 1);
+        if (!attribute.isEmpty() && attribute.charAt(0) >= '0' && attribute.charAt(0) <= '9') {
+            sb.append('_');
+        }
+        for (int i = 0; i < attribute.length(); i++) {
+            char c = attribute.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+            sb.append(ok ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A node of the trie; the leaves are the combinations spans resolve to.
+     */
+    final class Combination {
+        private final Combination parent;
+        private final String value;
+        private final ConcurrentHashMap<String, Combination> children = new ConcurrentHashMap<>();
+        private volatile Map<String, String> labels;
+        // Scoped context for these labels, created by the first span that had them on the current profiler.
+        volatile ProfilerBinding.LabelContext context;
+
+        Combination() {
+            this(null, null);
+        }
+
+        Combination(Combination parent, String value) {
+            this.parent = parent;
+            this.value = value;
+        }
+
+        Map<String, String> labels() {
+            Map<String, String> l = labels;
+            if (l == null) {
+                l = buildLabels(this);
+            }
+            return l;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+
+import io.pyroscope.javaagent.api.ProfilerScopedContext;
+
+/**
+ * Per-thread stack of the spans whose profiler context was set on this thread. Starting a child span pushes
+ * its ids, ending it restores the parent's, so the rest of the parent span keeps its label.
+ *
+ * Frames live in parallel arrays that only grow up to {@link #MAX_DEPTH}; steady state pushes and pops do
+ * not allocate. Spans may end out of order or on another thread: a frame in the middle is removed without
+ * touching the profiler context, and frames of spans that already ended elsewhere are dropped as soon as
+ * they reach the top.
+ *
+ * Frames also carry the thread CPU time, allocated bytes and monitor blocked time at span start when per-span
+ * counters are on. A frame on the stack is also the record that the span was linked; in context storage mode the
+ * stack is kept for those two purposes alone. A frame may own a
+ * {@link ProfilerScopedContext} with attribute labels, which is closed whenever the frame leaves the stack.
+ */
+final class SpanContextStack {
+
+    static final int MAX_DEPTH = 128;
+    private static final int INITIAL_DEPTH = 8;
+
+    private ReadableSpan[] spans = new ReadableSpan[INITIAL_DEPTH];
+    private long[] spanIds = new long[INITIAL_DEPTH];
+    private long[] spanNames = new long[INITIAL_DEPTH];
+    private long[] traceIdHighs = new long[INITIAL_DEPTH];
+    private long[] traceIdLows = new long[INITIAL_DEPTH];
+    private long[] cpuStarts = new long[INITIAL_DEPTH];
+    private long[] allocStarts = new long[INITIAL_DEPTH];
+    private long[] lockStarts = new long[INITIAL_DEPTH];
+    private ProfilerScopedContext[] labels = new ProfilerScopedContext[INITIAL_DEPTH];
+    private int size;
+    // Last monitor blocked time read at a span start on this thread, and when it was read.
+    long blockedRead = -1;
+    long blockedReadNanos;
+    // True while the thread is in the profiler's thread filter for span-scoped wall-clock sampling.
+    boolean wallClockMarked;
+    // Trace id last written to the profiler for this thread and the binding it was written through, so that spans
+    // of the same trace only update the span context. Null binding: unknown or cleared. Not tracked on virtual
+    // threads without the mount hooks, whose carrier may have been relabeled by another virtual thread.
+    private final boolean trackTraceId;
+    private ProfilerBinding traceIdBinding;
+    private long writtenTraceIdHigh;
+    private long writtenTraceIdLow;
+
+    SpanContextStack() {
+        this(true);
+    }
+
+    SpanContextStack(boolean trackTraceId) {
+        this.trackTraceId = trackTraceId;
+    }
+
+    void push(ReadableSpan span, long spanId, long spanName, long traceIdHigh, long traceIdLow, long cpuStart,
+              long allocStart, long lockStart) {
+        pruneEnded();
+        if (size == spans.length) {
+            if (size < MAX_DEPTH) {
+                grow();
+            } else {
+                // Runaway nesting: forget the outermost frame rather than the innermost.
+                removeAt(0);
+            }
+        }
+        spans[size] = span;
+        spanIds[size] = spanId;
+        spanNames[size] = spanName;
+        traceIdHighs[size] = traceIdHigh;
+        traceIdLows[size] = traceIdLow;
+        cpuStarts[size] = cpuStart;
+        allocStarts[size] = allocStart;
+        lockStarts[size] = lockStart;
+        size++;
+    }
+
+    /**
+     * Removes the frame of {@code span}. Returns true if the top of the stack changed, in which case the caller
+     * has to apply the new top (or clear the context if the stack is empty).
+     */
+    boolean remove(ReadableSpan span) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (spans[i] == span) {
+                boolean top = i == size - 1;
+                removeAt(i);
+                if (top) {
+                    pruneEnded();
+                }
+                return top;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the frame index of {@code span}, or -1 if it was not started on this thread (or already dropped).
+     */
+    int indexOf(ReadableSpan span) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (spans[i] == span) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    long cpuStart(int index) {
+        return cpuStarts[index];
+    }
+
+    void setTopLabels(ProfilerScopedContext scopedContext) {
+        labels[size - 1] = scopedContext;
+    }
+
+    long allocStart(int index) {
+        return allocStarts[index];
+    }
+
+    long lockStart(int index) {
+        return lockStarts[index];
+    }
+
+    /**
+     * Returns true if the profiler already has {@code traceIdHigh}/{@code traceIdLow} as this thread's trace id,
+     * written through {@code profiler}.
+     */
+    boolean hasTraceId(ProfilerBinding profiler, long traceIdHigh, long traceIdLow) {
+        return trackTraceId && traceIdBinding == profiler && writtenTraceIdHigh == traceIdHigh
+                && writtenTraceIdLow == traceIdLow;
+    }
+
+    void traceIdWritten(ProfilerBinding profiler, long traceIdHigh, long traceIdLow) {
+        // An unparsable trace id is written as whatever the profiler makes of the string; never skip it.
+        traceIdBinding = traceIdHigh == 0 && traceIdLow == 0 ? null : profiler;
+        writtenTraceIdHigh = traceIdHigh;
+        writtenTraceIdLow = traceIdLow;
+    }
+
+    void traceIdCleared() {
+        traceIdBinding = null;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long topSpanId() {
+        return spanIds[size - 1];
+    }
+
+    long topSpanName() {
+        return spanNames[size - 1];
+    }
+
+    long topTraceIdHigh() {
+        return traceIdHighs[size - 1];
+    }
+
+    long topTraceIdLow() {
+        return traceIdLows[size - 1];
+    }
+
+    ReadableSpan topSpan() {
+        return spans[size - 1];
+    }
+
+    private void pruneEnded() {
+        while (size > 0 && spans[size - 1].hasEnded()) {
+            removeAt(size - 1);
+        }
+    }
+
+    private void removeAt(int i) {
+        ProfilerScopedContext scopedContext = labels[i];
+        if (scopedContext != null) {
+            scopedContext.close();
+        }
+        int tail = size - i - 1;
+        if (tail > 0) {
+            System.arraycopy(spans, i + 1, spans, i, tail);
+            System.arraycopy(spanIds, i + 1, spanIds, i, tail);
+            System.arraycopy(spanNames, i + 1, spanNames, i, tail);
+            System.arraycopy(traceIdHighs, i + 1, traceIdHighs, i, tail);
+            System.arraycopy(traceIdLows, i + 1, traceIdLows, i, tail);
+            System.arraycopy(cpuStarts, i + 1, cpuStarts, i, tail);
+            System.arraycopy(allocStarts, i + 1, allocStarts, i, tail);
+            System.arraycopy(lockStarts, i + 1, lockStarts, i, tail);
+            System.arraycopy(labels, i + 1, labels, i, tail);
+        }
+        size--;
+        spans[size] = null;
+        labels[size] = null;
+    }
+
+    private void grow() {
+        int capacity = Math.min(spans.length * 2, MAX_DEPTH);
+        ReadableSpan[] newSpans = new ReadableSpan[capacity];
+        long[] newSpanIds = new long[capacity];
+        long[] newSpanNames = new long[capacity];
+        long[] newTraceIdHighs = new long[capacity];
+        long[] newTraceIdLows = new long[capacity];
+        long[] newCpuStarts = new long[capacity];
+        long[] newAllocStarts = new long[capacity];
+        long[] newLockStarts = new long[capacity];
+        ProfilerScopedContext[] newLabels = new ProfilerScopedContext[capacity];
+        System.arraycopy(spans, 0, newSpans, 0, size);
+        System.arraycopy(spanIds, 0, newSpanIds, 0, size);
+        System.arraycopy(spanNames, 0, newSpanNames, 0, size);
+        System.arraycopy(traceIdHighs, 0, newTraceIdHighs, 0, size);
+        System.arraycopy(traceIdLows, 0, newTraceIdLows, 0, size);
+        System.arraycopy(cpuStarts, 0, newCpuStarts, 0, size);
+        System.arraycopy(allocStarts, 0, newAllocStarts, 0, size);
+        System.arraycopy(lockStarts, 0, newLockStarts, 0, size);
+        System.arraycopy(labels, 0, newLabels, 0, size);
+        spans = newSpans;
+        spanIds = newSpanIds;
+        spanNames = newSpanNames;
+        traceIdHighs = newTraceIdHighs;
+        traceIdLows = newTraceIdLows;
+        cpuStarts = newCpuStarts;
+        allocStarts = newAllocStarts;
+        lockStarts = newLockStarts;
+        labels = newLabels;
+    }
+}
@@ -0,0 +1,82 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import io.pyroscope.javaagent.api.ProfilerApi;
+
+/**
+ * JFR events committed when a linked span starts and ends, so a recording holds exact span windows next to the
+ * samples: which thread ran the span and when, not only which samples carried its context. The events are
+ * {@link Enabled disabled} by default. Until a recording enables them, each call is an allocation the JIT removes
+ * and an enabled check; span names and ids are only looked up for a recorded event.
+ *
+ * Only referenced when {@link OtelCompat#hasJfr()}.
+ */
+final class SpanJfrEvents {
+
+    static final String START_EVENT = "io.pyroscope.otel.SpanStart";
+    static final String END_EVENT = "io.pyroscope.otel.SpanEnd";
+
+    private SpanJfrEvents() {
+    }
+
+    static void spanStart(PyroscopeOtelSpanProcessor processor, LinkPolicy policy, ProfilerApi api, ReadableSpan span) {
+        SpanStart event = new SpanStart();
+        if (event.isEnabled()) {
+            event.fill(processor, policy, api, span);
+            event.commit();
+        }
+    }
+
+    static void spanEnd(PyroscopeOtelSpanProcessor processor, LinkPolicy policy, ProfilerApi api, ReadableSpan span) {
+        SpanEnd event = new SpanEnd();
+        if (event.isEnabled()) {
+            event.fill(processor, policy, api, span);
+            event.commit();
+        }
+    }
+
+    @Category({"Pyroscope", "OpenTelemetry"})
+    @Enabled(false)
+    @StackTrace(false)
+    abstract static class SpanEvent extends Event {
+
+        @Label("Span Id")
+        @Description("Hex span id, the profile_id of samples taken while the span is current")
+        String spanId;
+
+        @Label("Trace Id")
+        String traceId;
+
+        @Label("Span Name")
+        @Description("Constant id of the span name label in the profile, 0 when span names are not added")
+        long spanName;
+
+        final void fill(PyroscopeOtelSpanProcessor processor, LinkPolicy policy, ProfilerApi api, ReadableSpan span) {
+            SpanContext spanContext = span.getSpanContext();
+            spanId = spanContext.getSpanId();
+            traceId = spanContext.getTraceId();
+            if (policy.addSpanName) {
+                spanName = processor.spanNameId(api, span.getName());
+            }
+        }
+    }
+
+    @Name(START_EVENT)
+    @Label("Span Start")
+    static final class SpanStart extends SpanEvent {
+    }
+
+    @Name(END_EVENT)
+    @Label("Span End")
+    static final class SpanEnd extends SpanEvent {
+    }
+}
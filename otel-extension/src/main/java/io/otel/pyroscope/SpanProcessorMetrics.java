@@ -0,0 +1,142 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Self-telemetry of {@link PyroscopeOtelSpanProcessor}. Span threads only increment {@link LongAdder}s, which
+ * stripe under contention; the values are exported through asynchronous instruments that the SDK reads at
+ * collection time, so recording never goes through the metrics SDK.
+ *
+ * Callback durations are exported as a call count and a total, which gives the mean over any window. A histogram
+ * would have to be recorded through the metrics SDK on every span.
+ */
+final class SpanProcessorMetrics {
+
+    static final String PREFIX = "pyroscope.otel.span_processor.";
+
+    private static final AttributeKey<String> CALLBACK = AttributeKey.stringKey("callback");
+    private static final AttributeKey<String> RESULT = AttributeKey.stringKey("result");
+    private static final AttributeKey<String> IMPLEMENTATION = AttributeKey.stringKey("implementation");
+
+    private static volatile SpanProcessorMetrics published;
+
+    final LongAdder linked = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final LongAdder holderSwaps = new LongAdder();
+    final Timer onStart = new Timer("onStart");
+    final Timer onEnd = new Timer("onEnd");
+    private final IntSupplier registeredNames;
+    private final LongSupplier nameLookups;
+    private final LongSupplier nameMisses;
+    private final OverheadGovernor governor;
+    private volatile String implementation = "none";
+
+    SpanProcessorMetrics(IntSupplier registeredNames, LongSupplier nameLookups, LongSupplier nameMisses,
+                         OverheadGovernor governor) {
+        this.registeredNames = registeredNames;
+        this.nameLookups = nameLookups;
+        this.nameMisses = nameMisses;
+        this.governor = governor;
+    }
+
+    /**
+     * Makes these metrics the ones {@link #registerPublished(Meter)} exports once the SDK is up.
+     */
+    void publish() {
+        published = this;
+    }
+
+    static void registerPublished(Meter meter) {
+        SpanProcessorMetrics m = published;
+        if (m != null) {
+            m.register(meter);
+        }
+    }
+
+    void profilerBound(Object api, boolean swap) {
+        implementation = api == null ? "none" : api.getClass().getName();
+        if (swap) {
+            holderSwaps.increment();
+        }
+    }
+
+    void register(Meter meter) {
+        Attributes linkedAttributes = Attributes.of(RESULT, "linked");
+        Attributes skippedAttributes = Attributes.of(RESULT, "skipped");
+        meter.counterBuilder(PREFIX + "spans")
+                .setDescription("Spans seen by onStart, by whether they were linked to profiles")
+                .buildWithCallback(m -> {
+                    m.record(linked.sum(), linkedAttributes);
+                    m.record(skipped.sum(), skippedAttributes);
+                });
+        Attributes hitAttributes = Attributes.of(RESULT, "hit");
+        Attributes missAttributes = Attributes.of(RESULT, "miss");
+        meter.counterBuilder(PREFIX + "span_name.lookups")
+                .setDescription("Span name constant lookups, by cache hit or miss")
+                .buildWithCallback(m -> {
+                    long lookups = nameLookups.getAsLong();
+                    long misses = Math.min(lookups, nameMisses.getAsLong());
+                    m.record(lookups - misses, hitAttributes);
+                    m.record(misses, missAttributes);
+                });
+        meter.gaugeBuilder(PREFIX + "span_name.registered")
+                .setDescription("Distinct span name constants registered with the profiler")
+                .ofLongs()
+                .buildWithCallback(m -> m.record(registeredNames.getAsInt()));
+        meter.counterBuilder(PREFIX + "profiler.swaps")
+                .setDescription("Times the ProfilerApi published in ProfilerApiHolder changed")
+                .buildWithCallback(m -> m.record(holderSwaps.sum()));
+        meter.gaugeBuilder(PREFIX + "profiler.active")
+                .setDescription("ProfilerApi implementation in use")
+                .ofLongs()
+                .buildWithCallback(m -> m.record(1, Attributes.of(IMPLEMENTATION, implementation)));
+        meter.counterBuilder(PREFIX + "duration.count")
+                .setDescription("Calls of the callbacks")
+                .buildWithCallback(m -> {
+                    m.record(onStart.count.sum(), onStart.attributes);
+                    m.record(onEnd.count.sum(), onEnd.attributes);
+                });
+        meter.counterBuilder(PREFIX + "duration.sum")
+                .setDescription("Total time spent in the callbacks")
+                .setUnit("ns")
+                .buildWithCallback(m -> {
+                    m.record(onStart.sum.sum(), onStart.attributes);
+                    m.record(onEnd.sum.sum(), onEnd.attributes);
+                });
+        if (governor != null) {
+            meter.gaugeBuilder(PREFIX + "governor.level")
+                    .setDescription("Linking level of the overhead governor: 0 full, 1 no span names, 2 sampled, " +
+                            "3 root spans only")
+                    .ofLongs()
+                    .buildWithCallback(m -> m.record(governor.level()));
+            meter.counterBuilder(PREFIX + "governor.level.changes")
+                    .setDescription("Times the overhead governor changed the linking level")
+                    .buildWithCallback(m -> m.record(governor.changes()));
+            meter.gaugeBuilder(PREFIX + "governor.cpu.share")
+                    .setDescription("Share of the machine's CPU capacity used by the span processor, over the " +
+                            "governor's window")
+                    .buildWithCallback(m -> m.record(governor.share()));
+        }
+    }
+
+    static final class Timer {
+        final Attributes attributes;
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+
+        Timer(String callback) {
+            this.attributes = Attributes.of(CALLBACK, callback);
+        }
+
+        void record(long nanos) {
+            count.increment();
+            sum.add(nanos);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package io.otel.pyroscope;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Recent span timelines for incident analysis: which linked spans ran on which threads, and when. Each thread
+ * writes the spans it ends into its own ring of primitive longs, so recording is a handful of array stores and an
+ * ordered counter update: no allocation, no lock, no contention. An entry names the thread the span ran on, which
+ * is not the recording thread when the span ends on another one. Rings are created on a thread's first span, up
+ * to {@code maxThreads}; a ring of a terminated thread is handed to the next thread that asks for one. A thread
+ * that found every ring taken does not record, and asks again at most once per {@link #CLAIM_RETRY_NANOS} across
+ * all threads. Rings only keep their thread weakly. Memory is bounded by {@code maxThreads * capacity * 64} bytes.
+ *
+ * {@link #dump(String)}, also exposed through JMX as {@value #OBJECT_NAME}, writes a CSV snapshot sorted by start
+ * time. Entries a thread overwrote while being copied are dropped rather than reported torn, and the slot a thread
+ * may be writing is always skipped, so a dump has at most {@code capacity - 1} entries per thread.
+ */
+final class SpanTimeline implements SpanTimelineMBean {
+
+    static final String OBJECT_NAME = "io.pyroscope.otel:type=SpanTimeline";
+    static final int MAX_CAPACITY = 1 << 16;
+    static final long CLAIM_RETRY_NANOS = 1_000_000_000L;
+
+    private static final int FIELDS = 7;
+    private static final int SPAN_ID = 0;
+    private static final int TRACE_ID_HIGH = 1;
+    private static final int TRACE_ID_LOW = 2;
+    private static final int SPAN_NAME = 3;
+    private static final int START = 4;
+    private static final int END = 5;
+    private static final int THREAD_ID = 6;
+
+    private final int capacity;
+    private final Ring[] rings;
+    private final ThreadLocal<Ring> local = new ThreadLocal<>();
+    private final Supplier<Map<Long, String>> names;
+    private final long claimRetryNanos;
+    // No thread asks for a ring before this time, set when all rings were taken.
+    private volatile long nextClaimNanos;
+    // Only used for its fence between copying a ring and re-reading the ring's counter.
+    private final AtomicLong snapshots = new AtomicLong();
+
+    SpanTimeline(int capacity, int maxThreads, Supplier<Map<Long, String>> names) {
+        this(capacity, maxThreads, names, CLAIM_RETRY_NANOS);
+    }
+
+    SpanTimeline(int capacity, int maxThreads, Supplier<Map<Long, String>> names, long claimRetryNanos) {
+        int c = Math.max(2, Math.min(capacity, MAX_CAPACITY));
+        this.capacity = Integer.highestOneBit(c - 1) << 1;
+        this.rings = new Ring[Math.max(1, maxThreads)];
+        this.names = names;
+        this.claimRetryNanos = claimRetryNanos;
+        this.nextClaimNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a span that ran on the current thread. Times are {@link System#nanoTime()} values.
+     */
+    void record(long spanId, long traceIdHigh, long traceIdLow, long spanName, long startNanos, long endNanos) {
+        Thread current = Thread.currentThread();
+        record(spanId, traceIdHigh, traceIdLow, spanName, startNanos, endNanos, current.getId(), current.getName());
+    }
+
+    /**
+     * Records a span that ran on thread {@code threadId}, from the thread that ended it.
+     */
+    void record(long spanId, long traceIdHigh, long traceIdLow, long spanName, long startNanos, long endNanos,
+                long threadId, String threadName) {
+        Ring ring = local.get();
+        if (ring == null) {
+            if (System.nanoTime() - nextClaimNanos < 0 || (ring = claim()) == null) {
+                return;
+            }
+            local.set(ring);
+        }
+        ring.add(spanId, traceIdHigh, traceIdLow, spanName, startNanos, endNanos, threadId, threadName);
+    }
+
+    private synchronized Ring claim() {
+        if (System.nanoTime() - nextClaimNanos < 0) {
+            return null;
+        }
+        Thread current = Thread.currentThread();
+        for (int i = 0; i < rings.length; i++) {
+            Ring ring = rings[i];
+            if (ring == null) {
+                ring = new Ring(capacity);
+                rings[i] = ring;
+            } else if (ring.isOwnerAlive()) {
+                continue;
+            }
+            ring.reset(current);
+            return ring;
+        }
+        nextClaimNanos = System.nanoTime() + claimRetryNanos;
+        PyroscopeOtelDebug.log("SpanTimeline: all " + rings.length + " rings in use, not recording " + current.getName());
+        return null;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized int getThreads() {
+        int n = 0;
+        for (Ring ring : rings) {
+            if (ring != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String dump(String path) throws IOException {
+        Path file = path == null || path.isEmpty()
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "pyroscope-span-timeline-" + System.currentTimeMillis() + ".csv")
+                : Paths.get(path);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+        return file.toAbsolutePath().toString();
+    }
+
+    /**
+     * Writes the snapshot as CSV. Start and end are epoch nanoseconds, converted from {@code nanoTime} with one
+     * clock reading taken at dump time.
+     */
+    void write(Writer out) throws IOException {
+        long nowNanos = System.nanoTime();
+        long nowEpochNanos = System.currentTimeMillis() * 1_000_000L;
+        List<Row> rows = snapshot();
+        Map<Long, String> spanNames = names.get();
+        BufferedWriter w = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out);
+        w.write("thread_id,thread_name,span_id,trace_id,span_name,start_epoch_nanos,end_epoch_nanos,duration_nanos\n");
+        for (Row row : rows) {
+            long[] e = row.entry;
+            String name = spanNames.get(e[SPAN_NAME]);
+            w.write(Long.toString(row.threadId));
+            w.write(',');
+            w.write(row.threadName != null ? csv(row.threadName) : "");
+            w.write(',');
+            w.write(hex(e[SPAN_ID]));
+            w.write(',');
+            w.write(hex(e[TRACE_ID_HIGH]));
+            w.write(hex(e[TRACE_ID_LOW]));
+            w.write(',');
+            w.write(name != null ? csv(name) : e[SPAN_NAME] == 0 ? "" : Long.toString(e[SPAN_NAME]));
+            w.write(',');
+            w.write(Long.toString(nowEpochNanos - (nowNanos - e[START])));
+            w.write(',');
+            w.write(Long.toString(nowEpochNanos - (nowNanos - e[END])));
+            w.write(',');
+            w.write(Long.toString(e[END] - e[START]));
+            w.write('\n');
+        }
+        w.flush();
+    }
+
+    List<Row> snapshot() {
+        Ring[] all;
+        synchronized (this) {
+            all = rings.clone();
+        }
+        List<Row> rows = new ArrayList<>();
+        for (Ring ring : all) {
+            if (ring != null) {
+                ring.copyTo(rows, snapshots);
+            }
+        }
+        Collections.sort(rows, Comparator.comparingLong(r -> r.entry[START]));
+        return rows;
+    }
+
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // A previous SDK instance in the same JVM: the latest processor wins.
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception | LinkageError e) {
+            PyroscopeOtelDebug.log("SpanTimeline: cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception | LinkageError e) {
+            PyroscopeOtelDebug.log("SpanTimeline: cannot unregister " + OBJECT_NAME, e);
+        }
+    }
+
+    private static String hex(long v) {
+        String s = Long.toHexString(v);
+        return s.length() == 16 ? s : "0000000000000000".substring(s.length()) + s;
+    }
+
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    static final class Row {
+        final long threadId;
+        final String threadName;
+        final long[] entry;
+
+        Row(long threadId, String threadName, long[] entry) {
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.entry = entry;
+        }
+
+        long spanId() {
+            return entry[SPAN_ID];
+        }
+
+        long durationNanos() {
+            return entry[END] - entry[START];
+        }
+    }
+
+    /**
+     * Single-writer ring. {@code written} counts entries ever added; the owner publishes an entry with an ordered
+     * store of the counter after filling it. Thread names are the strings the caller already holds.
+     */
+    private static final class Ring {
+        final long[] entries;
+        final String[] threadNames;
+        final int mask;
+        final AtomicLong written = new AtomicLong();
+        // A live thread is always strongly reachable, so a cleared reference means the owner terminated.
+        volatile WeakReference<Thread> owner;
+
+        Ring(int capacity) {
+            this.entries = new long[capacity * FIELDS];
+            this.threadNames = new String[capacity];
+            this.mask = capacity - 1;
+        }
+
+        void reset(Thread thread) {
+            owner = new WeakReference<>(thread);
+            written.set(0);
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+
+        void add(long spanId, long traceIdHigh, long traceIdLow, long spanName, long start, long end,
+                 long threadId, String threadName) {
+            long n = written.get();
+            int slot = (int) (n & mask);
+            int base = slot * FIELDS;
+            entries[base + SPAN_ID] = spanId;
+            entries[base + TRACE_ID_HIGH] = traceIdHigh;
+            entries[base + TRACE_ID_LOW] = traceIdLow;
+            entries[base + SPAN_NAME] = spanName;
+            entries[base + START] = start;
+            entries[base + END] = end;
+            entries[base + THREAD_ID] = threadId;
+            threadNames[slot] = threadName;
+            written.lazySet(n + 1);
+        }
+
+        void copyTo(List<Row> rows, AtomicLong fence) {
+            long before = written.get();
+            long[] copy = entries.clone();
+            String[] names = threadNames.clone();
+            // Full fence: the copy above must not be reordered after the re-read of the counter below.
+            fence.incrementAndGet();
+            long after = written.get();
+            int capacity = mask + 1;
+            // The owner may be filling entry 'after', which overwrites entry 'after - capacity'.
+            long from = Math.max(0, Math.max(before - capacity, after - capacity + 1));
+            for (long i = from; i < before; i++) {
+                int slot = (int) (i & mask);
+                long[] entry = new long[FIELDS];
+                System.arraycopy(copy, slot * FIELDS, entry, 0, FIELDS);
+                rows.add(new Row(entry[THREAD_ID], names[slot], entry));
+            }
+        }
+    }
+}
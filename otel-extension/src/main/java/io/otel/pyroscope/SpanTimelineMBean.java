@@ -0,0 +1,25 @@
+package io.otel.pyroscope;
+
+import java.io.IOException;
+
+/**
+ * JMX view of {@link SpanTimeline}, registered as {@value SpanTimeline#OBJECT_NAME}.
+ */
+public interface SpanTimelineMBean {
+
+    /**
+     * Entries kept per thread.
+     */
+    int getCapacity();
+
+    /**
+     * Threads that have a ring, alive or not.
+     */
+    int getThreads();
+
+    /**
+     * Writes the recent spans of all threads as CSV to {@code path}, or to a new file in {@code java.io.tmpdir} if
+     * it is empty. Returns the path written.
+     */
+    String dump(String path) throws IOException;
+}
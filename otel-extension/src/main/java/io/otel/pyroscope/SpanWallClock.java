@@ -0,0 +1,76 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.api.Logger;
+import io.pyroscope.javaagent.impl.DefaultLogger;
+
+import java.time.Duration;
+
+/**
+ * Span-scoped wall-clock profiling. The profiler samples wall time next to its configured event, but with
+ * async-profiler's {@code filter} option, so only threads in its thread filter get wall-clock samples. The span
+ * processor keeps a thread in the filter while a linked span is current on it, so idle pool threads are never
+ * sampled and every wall-clock sample is attributed to a span.
+ *
+ * The profiler takes its async-profiler arguments from the pyroscope agent configuration, so
+ * {@link #configureProfiler(String, Duration)} adds {@code wall} and {@code filter} to the extra arguments before
+ * the extension creates the profiler. Threads are added to the filter through {@link AsyncProfilerThreadBoost},
+ * which only works with the profiler bundled with the extension. The latency and baggage boosts add threads to the
+ * same filter, so they configure the profiler the same way.
+ */
+final class SpanWallClock {
+
+    static final String EXTRA_ARGUMENTS_PROPERTY = "pyroscope.ap.extra.arguments";
+    static final String EXTRA_ARGUMENTS_ENV = "PYROSCOPE_AP_EXTRA_ARGUMENTS";
+
+    private SpanWallClock() {
+    }
+
+    /**
+     * Adds the wall-clock interval and the thread filter to the profiler's extra arguments. Must run before the
+     * profiler is created; arguments the user already set win.
+     */
+    static void configureProfiler(String options, Duration interval) {
+        String extra = System.getProperty(EXTRA_ARGUMENTS_PROPERTY);
+        if (extra == null) {
+            extra = System.getenv(EXTRA_ARGUMENTS_ENV);
+        }
+        String arguments = arguments(extra, interval);
+        System.setProperty(EXTRA_ARGUMENTS_PROPERTY, arguments);
+        DefaultLogger.PRECONFIG_LOGGER.log(Logger.Level.INFO,
+                options + ": async-profiler extra arguments " + arguments);
+    }
+
+    /**
+     * Returns {@code extra} with {@code wall=<interval>} and {@code filter} appended unless it already has them.
+     */
+    static String arguments(String extra, Duration interval) {
+        boolean hasWall = false;
+        boolean hasFilter = false;
+        StringBuilder sb = new StringBuilder();
+        if (extra != null) {
+            for (String arg : extra.split(",")) {
+                arg = arg.trim();
+                if (arg.isEmpty()) {
+                    continue;
+                }
+                hasWall |= arg.equals("wall") || arg.startsWith("wall=");
+                hasFilter |= arg.equals("filter") || arg.startsWith("filter=");
+                append(sb, arg);
+            }
+        }
+        if (!hasWall) {
+            append(sb, "wall=" + Math.max(1, interval.toMillis()) + "ms");
+        }
+        if (!hasFilter) {
+            append(sb, "filter");
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String arg) {
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        sb.append(arg);
+    }
+}
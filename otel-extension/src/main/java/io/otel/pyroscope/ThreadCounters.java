@@ -0,0 +1,160 @@
+package io.otel.pyroscope;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-thread resource counters read at span boundaries. Only loaded when a per-span counter is enabled, so
+ * the management beans are not touched otherwise.
+ *
+ * Allocated bytes come from {@code com.sun.management.ThreadMXBean}, which not every JVM has; it is resolved
+ * reflectively and the counter is reported as unsupported when it is missing. JDK 14+ has
+ * {@code getCurrentThreadAllocatedBytes()}; older JDKs go through {@code getThreadAllocatedBytes(long)}, which
+ * looks the thread up by id and allocates a couple of small arrays per call.
+ *
+ * Monitor blocked time comes from {@link ThreadInfo}, with millisecond resolution. Each read takes a snapshot of
+ * the thread without its stack, which allocates but does not need a safepoint. Turning contention monitoring on
+ * makes the JVM time every contended monitor enter.
+ */
+final class ThreadCounters {
+
+    static final long BLOCKED_TIME_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final MethodType ALLOCATED_BYTES_TYPE = MethodType.methodType(long.class);
+    private static final MethodType ALLOCATED_BYTES_BY_ID_TYPE = MethodType.methodType(long.class, long.class);
+
+    private static final MethodHandle ALLOCATED_BYTES = findAllocatedBytes();
+
+    private ThreadCounters() {
+    }
+
+    /**
+     * Returns true if the current thread's CPU time can be read, turning CPU time measurement on if needed.
+     */
+    static boolean enableCpuTime() {
+        try {
+            if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+                PyroscopeOtelDebug.log("ThreadCounters: thread CPU time is not supported by this JVM");
+                return false;
+            }
+            if (!THREADS.isThreadCpuTimeEnabled()) {
+                THREADS.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            PyroscopeOtelDebug.log("ThreadCounters: cannot enable thread CPU time", e);
+            return false;
+        }
+    }
+
+    static long cpuTime() {
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Returns true if the current thread's allocated bytes can be read, turning allocation measurement on if needed.
+     */
+    static boolean enableAllocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return false;
+        }
+        try {
+            Class<?> ext = Class.forName("com.sun.management.ThreadMXBean");
+            if (!(Boolean) ext.getMethod("isThreadAllocatedMemorySupported").invoke(THREADS)) {
+                PyroscopeOtelDebug.log("ThreadCounters: thread allocated memory is not supported by this JVM");
+                return false;
+            }
+            if (!(Boolean) ext.getMethod("isThreadAllocatedMemoryEnabled").invoke(THREADS)) {
+                ext.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(THREADS, true);
+            }
+            return allocatedBytes() >= 0;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            PyroscopeOtelDebug.log("ThreadCounters: cannot enable thread allocated memory", e);
+            return false;
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, or -1 if the JVM cannot tell.
+     */
+    static long allocatedBytes() {
+        try {
+            return (long) ALLOCATED_BYTES.invokeExact();
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns true if the time the current thread spent blocked on monitors can be read, turning thread contention
+     * monitoring on if needed.
+     */
+    static boolean enableBlockedTime() {
+        try {
+            if (!THREADS.isThreadContentionMonitoringSupported()) {
+                PyroscopeOtelDebug.log("ThreadCounters: thread contention monitoring is not supported by this JVM");
+                return false;
+            }
+            if (!THREADS.isThreadContentionMonitoringEnabled()) {
+                THREADS.setThreadContentionMonitoringEnabled(true);
+            }
+            return blockedTime() >= 0;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            PyroscopeOtelDebug.log("ThreadCounters: cannot enable thread contention monitoring", e);
+            return false;
+        }
+    }
+
+    /**
+     * Nanoseconds the current thread spent blocked entering or re-entering a monitor so far, or -1 if the JVM
+     * cannot tell.
+     */
+    static long blockedTime() {
+        ThreadInfo info = THREADS.getThreadInfo(Thread.currentThread().getId());
+        if (info == null) {
+            return -1;
+        }
+        long millis = info.getBlockedTime();
+        return millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static MethodHandle findAllocatedBytes() {
+        Class<?> ext;
+        try {
+            ext = Class.forName("com.sun.management.ThreadMXBean");
+        } catch (ClassNotFoundException | LinkageError e) {
+            PyroscopeOtelDebug.log("ThreadCounters: com.sun.management.ThreadMXBean is not available");
+            return null;
+        }
+        if (!ext.isInstance(THREADS)) {
+            return null;
+        }
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            return lookup.findVirtual(ext, "getCurrentThreadAllocatedBytes", ALLOCATED_BYTES_TYPE).bindTo(THREADS);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // JDK < 14
+        }
+        try {
+            MethodHandle byId = lookup.findVirtual(ext, "getThreadAllocatedBytes", ALLOCATED_BYTES_BY_ID_TYPE)
+                    .bindTo(THREADS);
+            MethodHandle currentThreadId = lookup.findVirtual(Thread.class, "getId", MethodType.methodType(long.class));
+            MethodHandle currentThread = lookup.findStatic(Thread.class, "currentThread",
+                    MethodType.methodType(Thread.class));
+            return MethodHandles.filterReturnValue(currentThread,
+                    MethodHandles.filterReturnValue(currentThreadId, byId));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            PyroscopeOtelDebug.log("ThreadCounters: cannot resolve getThreadAllocatedBytes", e);
+            return null;
+        }
+    }
+}
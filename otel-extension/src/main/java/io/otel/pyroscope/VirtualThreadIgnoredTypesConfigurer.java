@@ -0,0 +1,20 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.javaagent.extension.ignore.IgnoredTypesBuilder;
+import io.opentelemetry.javaagent.extension.ignore.IgnoredTypesConfigurer;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+
+import static io.otel.pyroscope.OtelCompat.getBoolean;
+
+/**
+ * The agent does not transform most of {@code java.lang}; lets {@link VirtualThreadInstrumentation} through.
+ */
+public class VirtualThreadIgnoredTypesConfigurer implements IgnoredTypesConfigurer {
+
+    @Override
+    public void configure(IgnoredTypesBuilder builder, ConfigProperties config) {
+        if (getBoolean(config, VirtualThreadSupport.ENABLED_PROPERTY, false)) {
+            builder.allowClass("java.lang.VirtualThread");
+        }
+    }
+}
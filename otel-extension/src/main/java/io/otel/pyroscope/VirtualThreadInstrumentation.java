@@ -0,0 +1,52 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.javaagent.extension.instrumentation.TypeInstrumentation;
+import io.opentelemetry.javaagent.extension.instrumentation.TypeTransformer;
+import io.otel.pyroscope.vt.VirtualThreadHooks;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Hooks {@code VirtualThread.mount()} and {@code unmount()}, the two private methods the JDK (21 and later) calls
+ * around every continuation run. The advice only calls {@link VirtualThreadHooks}, which is resolved from the
+ * bootstrap class path like the rest of {@code java.lang}. It is not applied while the hooks class cannot be put
+ * there, since {@code VirtualThread} would keep the failed resolution.
+ */
+public class VirtualThreadInstrumentation implements TypeInstrumentation {
+
+    @Override
+    public ElementMatcher<TypeDescription> typeMatcher() {
+        return named("java.lang.VirtualThread");
+    }
+
+    @Override
+    public void transform(TypeTransformer transformer) {
+        if (VirtualThreadSupport.appendHooks() == null) {
+            return;
+        }
+        transformer.applyAdviceToMethod(named("mount").and(takesArguments(0)),
+                VirtualThreadInstrumentation.class.getName() + "$MountAdvice");
+        transformer.applyAdviceToMethod(named("unmount").and(takesArguments(0)),
+                VirtualThreadInstrumentation.class.getName() + "$UnmountAdvice");
+    }
+
+    @SuppressWarnings("unused")
+    public static class MountAdvice {
+        @Advice.OnMethodExit(suppress = Throwable.class)
+        public static void onExit() {
+            VirtualThreadHooks.mounted();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    public static class UnmountAdvice {
+        @Advice.OnMethodEnter(suppress = Throwable.class)
+        public static void onEnter() {
+            VirtualThreadHooks.unmounting();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.javaagent.extension.instrumentation.InstrumentationModule;
+import io.opentelemetry.javaagent.extension.instrumentation.TypeInstrumentation;
+import io.opentelemetry.sdk.autoconfigure.spi.ConfigProperties;
+
+import java.util.Collections;
+import java.util.List;
+
+import static io.otel.pyroscope.OtelCompat.getBoolean;
+
+/**
+ * Keeps the profiler context of virtual threads on their carrier threads, see {@link VirtualThreadSupport}. Off
+ * unless {@value VirtualThreadSupport#ENABLED_PROPERTY} is set.
+ */
+public class VirtualThreadInstrumentationModule extends InstrumentationModule {
+
+    public VirtualThreadInstrumentationModule() {
+        super("pyroscope-virtual-threads");
+    }
+
+    @Override
+    public boolean defaultEnabled(ConfigProperties config) {
+        return getBoolean(config, VirtualThreadSupport.ENABLED_PROPERTY, false);
+    }
+
+    @Override
+    public List<TypeInstrumentation> typeInstrumentations() {
+        return Collections.singletonList(new VirtualThreadInstrumentation());
+    }
+}
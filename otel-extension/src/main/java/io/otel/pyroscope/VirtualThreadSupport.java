@@ -0,0 +1,168 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.javaagent.bootstrap.InstrumentationHolder;
+import io.otel.pyroscope.vt.VirtualThreadHooks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Virtual thread support. The profiler context is per OS thread, i.e. per carrier: without help a virtual thread
+ * that unmounts in the middle of a span leaves its span id on the carrier, and whatever runs there next is sampled
+ * with it, while the span's own samples are lost as soon as it resumes on another carrier.
+ *
+ * {@link VirtualThreadInstrumentation} calls {@link VirtualThreadHooks} on every mount and unmount. The hooks class
+ * has to be visible from {@code java.lang.VirtualThread}, so {@link #install} appends a one-class jar with it to
+ * the bootstrap class path (through the same {@link BootstrapJarCache} as the API classes) and sets the callbacks
+ * on the bootstrap copy reflectively. The callbacks read the span context the extension already keeps per
+ * (virtual) thread; a virtual thread without a span costs a thread local lookup per mount. That lookup never
+ * creates a span stack, but the first one on a virtual thread creates the thread's (empty) thread local map.
+ *
+ * The JVM caches a failed resolution of a class reference for good, so the advice must never run before the hooks
+ * class is on the bootstrap class path: {@link VirtualThreadInstrumentation} only applies it once
+ * {@link #appendHooks} succeeded, and every caller retries the append until one does.
+ */
+final class VirtualThreadSupport {
+
+    static final String ENABLED_PROPERTY = "otel.pyroscope.virtual.threads";
+
+    private static final String HOOKS_CLASS = VirtualThreadHooks.class.getName();
+    private static final String HOOKS_ENTRY = HOOKS_CLASS.replace('.', '/') + ".class";
+
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private static volatile boolean installed;
+    private static Class<?> hooks;
+
+    private VirtualThreadSupport() {
+    }
+
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("isVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true once the mount hooks are installed, after which the profiler context of a virtual thread's
+     * carrier only changes through the extension.
+     */
+    static boolean isInstalled() {
+        return installed;
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    static boolean install(Runnable onMount, Runnable onUnmount) {
+        if (!isSupported()) {
+            PyroscopeOtelDebug.log("VirtualThreadSupport: no virtual threads in this JVM, skipping");
+            return false;
+        }
+        Class<?> hooks = appendHooks();
+        if (hooks == null) {
+            return false;
+        }
+        try {
+            hooks.getField("onUnmount").set(null, onUnmount);
+            hooks.getField("onMount").set(null, onMount);
+            PyroscopeOtelDebug.log("VirtualThreadSupport: hooks installed");
+            installed = true;
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            PyroscopeOtelDebug.log("VirtualThreadSupport: failed to install hooks", e);
+            return false;
+        }
+    }
+
+    /**
+     * Appends the hooks jar to the bootstrap class path unless an earlier call did, and returns the bootstrap copy of
+     * {@link VirtualThreadHooks}, or null if it is not available yet. A failed append is retried on the next call.
+     */
+    static synchronized Class<?> appendHooks() {
+        if (hooks != null) {
+            return hooks;
+        }
+        return appendHooks(InstrumentationHolder.getInstrumentation());
+    }
+
+    static synchronized Class<?> appendHooks(Instrumentation instrumentation) {
+        if (hooks != null) {
+            return hooks;
+        }
+        if (instrumentation == null) {
+            PyroscopeOtelDebug.log("VirtualThreadSupport: Instrumentation not available, skipping");
+            return null;
+        }
+        try {
+            Path jar = BootstrapApiInjector.extract(hooksJar(), "pyroscope-vthread-");
+            instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(jar.toFile()));
+            hooks = Class.forName(HOOKS_CLASS, true, null);
+            PyroscopeOtelDebug.log("VirtualThreadSupport: hooks appended from " + jar);
+            return hooks;
+        } catch (IOException | ReflectiveOperationException | RuntimeException | LinkageError e) {
+            PyroscopeOtelDebug.log("VirtualThreadSupport: failed to append hooks", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a jar with only {@link VirtualThreadHooks}. Entries get a fixed time so the same extension always
+     * produces the same bytes, and hence the same cache entry.
+     */
+    static byte[] hooksJar() throws IOException {
+        byte[] classFile;
+        try (InputStream is = VirtualThreadSupport.class.getResourceAsStream("/" + HOOKS_ENTRY)) {
+            if (is == null) {
+                throw new IOException(HOOKS_ENTRY + " not found");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+            byte[] buf = new byte[2048];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bytes.write(buf, 0, n);
+            }
+            classFile = bytes.toByteArray();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try (JarOutputStream jar = new JarOutputStream(out)) {
+            JarEntry entry = new JarEntry(HOOKS_ENTRY);
+            entry.setTime(0);
+            jar.putNextEntry(entry);
+            jar.write(classFile);
+            jar.closeEntry();
+        }
+        return out.toByteArray();
+    }
+}
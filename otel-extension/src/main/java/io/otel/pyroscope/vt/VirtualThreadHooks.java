@@ -0,0 +1,32 @@
+package io.otel.pyroscope.vt;
+
+/**
+ * Entry points called by the advice that {@link io.otel.pyroscope.VirtualThreadInstrumentation} inlines into
+ * {@code java.lang.VirtualThread}. {@link io.otel.pyroscope.VirtualThreadSupport} appends this class to the bootstrap
+ * class path and sets the hooks on that copy, so it must not reference anything but JDK classes.
+ *
+ * Both hooks run on the carrier thread while the virtual thread is its current thread. With nothing installed a
+ * mount costs a volatile read.
+ */
+public final class VirtualThreadHooks {
+
+    public static volatile Runnable onMount;
+    public static volatile Runnable onUnmount;
+
+    private VirtualThreadHooks() {
+    }
+
+    public static void mounted() {
+        Runnable hook = onMount;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+
+    public static void unmounting() {
+        Runnable hook = onUnmount;
+        if (hook != null) {
+            hook.run();
+        }
+    }
+}
@@ -1,9 +1,22 @@
 package io.pyroscope.javaagent;
 
+import io.pyroscope.PyroscopeAsyncProfiler;
 import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.vendor.one.profiler.AsyncProfiler;
 
 public class ProfilerSdkFactory {
     public static ProfilerApi create() {
         return new ProfilerSdk();
     }
+
+    /**
+     * Returns the async-profiler instance behind {@code api} if it is the ProfilerSdk bundled with this extension,
+     * or null for any other implementation (e.g. the one of a separate pyroscope -javaagent).
+     */
+    public static AsyncProfiler asyncProfiler(ProfilerApi api) {
+        if (!(api instanceof ProfilerSdk)) {
+            return null;
+        }
+        return PyroscopeAsyncProfiler.getAsyncProfiler();
+    }
 }
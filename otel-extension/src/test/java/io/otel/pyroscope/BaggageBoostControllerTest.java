@@ -0,0 +1,93 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BaggageBoostControllerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testMarkedSpanIsBoostedUntilItEnds() {
+        RecordingBoost boost = new RecordingBoost();
+        BaggageBoostController controller = new BaggageBoostController("pyroscope.profile", "high", 4, 10, boost);
+        ReadableSpan root = Mockito.mock(ReadableSpan.class);
+        ReadableSpan child = Mockito.mock(ReadableSpan.class);
+        long now = System.nanoTime();
+
+        Assertions.assertTrue(controller.onMarkedStart(root, now));
+        Assertions.assertFalse(controller.onMarkedStart(child, now), "the thread is already boosted");
+        controller.onEnd(child);
+        Assertions.assertEquals(1, controller.activeBoosts());
+
+        controller.onEnd(root);
+        Assertions.assertEquals(0, controller.activeBoosts());
+        Assertions.assertEquals(1, boost.started.size());
+        Assertions.assertEquals(boost.started, boost.stopped);
+    }
+
+    @Test
+    void testSpanEndingOnAnotherThreadStopsTheBoost() throws Exception {
+        RecordingBoost boost = new RecordingBoost();
+        BaggageBoostController controller = new BaggageBoostController("pyroscope.profile", "high", 4, 10, boost);
+        ReadableSpan span = Mockito.mock(ReadableSpan.class);
+        controller.onMarkedStart(span, System.nanoTime());
+
+        Thread t = new Thread(() -> controller.onEnd(span));
+        t.start();
+        t.join();
+        Assertions.assertEquals(0, controller.activeBoosts());
+        Assertions.assertEquals(Thread.currentThread(), boost.stopped.get(0));
+    }
+
+    @Test
+    void testLimits() throws Exception {
+        RecordingBoost boost = new RecordingBoost();
+        BaggageBoostController controller = new BaggageBoostController("pyroscope.profile", "high", 2, 3, boost);
+        long now = System.nanoTime();
+        List<ReadableSpan> spans = new ArrayList<>();
+        List<Boolean> boosted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ReadableSpan span = Mockito.mock(ReadableSpan.class);
+            spans.add(span);
+            Thread t = new Thread(() -> boosted.add(controller.onMarkedStart(span, now)));
+            t.start();
+            t.join();
+        }
+        Assertions.assertEquals(2, controller.activeBoosts());
+        Assertions.assertFalse(boosted.get(2), "over the concurrency limit");
+
+        controller.onEnd(spans.get(0));
+        ReadableSpan span = Mockito.mock(ReadableSpan.class);
+        Assertions.assertTrue(controller.onMarkedStart(span, now));
+        controller.onEnd(span);
+        Assertions.assertFalse(controller.onMarkedStart(span, now + 1), "over the rate limit");
+        Assertions.assertTrue(controller.onMarkedStart(span, now + SECOND));
+
+        controller.close();
+        Assertions.assertEquals(0, controller.activeBoosts());
+        Assertions.assertEquals(boost.started.size(), boost.stopped.size());
+    }
+
+    private static final class RecordingBoost implements ProfilingBoost {
+        final List<Thread> started = new ArrayList<>();
+        final List<Thread> stopped = new ArrayList<>();
+
+        @Override
+        public synchronized boolean start(Thread thread) {
+            started.add(thread);
+            return true;
+        }
+
+        @Override
+        public synchronized void stop(Thread thread) {
+            stopped.add(thread);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.otel.pyroscope;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class BootstrapJarCacheTest {
+
+    private static final byte[] CONTENT = "not really a jar".getBytes(StandardCharsets.UTF_8);
+
+    private Path root;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        root = Files.createTempDirectory("bootstrap-cache-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    void testReusedAcrossInstances() throws IOException {
+        Path dir = root.resolve("cache");
+        Path first = new BootstrapJarCache(dir).extract(CONTENT, "test-");
+        Path second = new BootstrapJarCache(dir).extract(CONTENT, "test-");
+        Assertions.assertEquals(first, second);
+        Assertions.assertArrayEquals(CONTENT, Files.readAllBytes(first));
+        Assertions.assertTrue(first.getFileName().toString()
+                .contains(BootstrapJarCache.hex(BootstrapJarCache.sha256(CONTENT))));
+    }
+
+    @Test
+    void testTruncatedEntryIsReplaced() throws IOException {
+        Path dir = root.resolve("cache");
+        Path jar = new BootstrapJarCache(dir).extract(CONTENT, "test-");
+        Files.write(jar, "not really".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(jar, new BootstrapJarCache(dir).extract(CONTENT, "test-"));
+        Assertions.assertArrayEquals(CONTENT, Files.readAllBytes(jar));
+    }
+
+    @Test
+    void testCorruptEntryIsReplaced() throws IOException {
+        Path dir = root.resolve("cache");
+        Path jar = new BootstrapJarCache(dir).extract(CONTENT, "test-");
+        byte[] corrupt = CONTENT.clone();
+        corrupt[corrupt.length - 1] ^= 1;
+        Files.write(jar, corrupt);
+        Assertions.assertEquals(jar, new BootstrapJarCache(dir).extract(CONTENT, "test-"));
+        Assertions.assertArrayEquals(CONTENT, Files.readAllBytes(jar));
+    }
+
+    @Test
+    void testStaleTempFilesAreDeleted() throws IOException {
+        Path dir = root.resolve("cache");
+        new BootstrapJarCache(dir).extract(CONTENT, "test-");
+        Path stale = Files.write(dir.resolve("other-123.tmp"), CONTENT);
+        new BootstrapJarCache(dir).extract("other content".getBytes(StandardCharsets.UTF_8), "other-");
+        Assertions.assertFalse(Files.exists(stale));
+    }
+
+    @Test
+    void testSharedDirectoryIsRejected() throws IOException {
+        Assumptions.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path dir = Files.createDirectory(root.resolve("shared"));
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+        Assertions.assertThrows(IOException.class, () -> new BootstrapJarCache(dir).extract(CONTENT, "test-"));
+    }
+}
@@ -0,0 +1,143 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyBoostControllerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static ReadableSpan span(long latencyNanos) {
+        ReadableSpan span = Mockito.mock(ReadableSpan.class);
+        Mockito.when(span.getName()).thenReturn("GET /");
+        Mockito.when(span.getLatencyNanos()).thenReturn(latencyNanos);
+        return span;
+    }
+
+    private static void warmUp(LatencyBoostController controller) {
+        for (int i = 0; i < LatencyHistogram.RECOMPUTE_EVERY; i++) {
+            ReadableSpan span = span(TimeUnit.MILLISECONDS.toNanos(1));
+            controller.onStart(span);
+            controller.onEnd(span);
+        }
+    }
+
+    @Test
+    void testSlowSpanIsBoostedUntilItEnds() {
+        RecordingBoost boost = new RecordingBoost();
+        LatencyBoostController controller = new LatencyBoostController(0.99, 0, 4, 10, 16, 0, boost);
+        ReadableSpan slow = span(SECOND);
+        controller.onStart(slow);
+        controller.check(System.nanoTime() + SECOND);
+        Assertions.assertEquals(0, controller.activeBoosts(), "no latency history yet");
+        controller.onEnd(slow);
+
+        warmUp(controller);
+        controller.onStart(slow);
+        controller.check(System.nanoTime());
+        Assertions.assertEquals(0, controller.activeBoosts());
+        controller.check(System.nanoTime() + SECOND);
+        Assertions.assertEquals(1, controller.activeBoosts());
+        Assertions.assertEquals(1, boost.started.size());
+
+        controller.onEnd(slow);
+        Assertions.assertEquals(0, controller.activeBoosts());
+        Assertions.assertEquals(1, boost.stopped.size());
+    }
+
+    @Test
+    void testRateLimit() throws Exception {
+        RecordingBoost boost = new RecordingBoost();
+        LatencyBoostController controller = new LatencyBoostController(0.99, 0, 4, 1, 16, 0, boost);
+        warmUp(controller);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Thread t = new Thread(() -> {
+                controller.onStart(span(SECOND));
+                started.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        started.await();
+        long now = System.nanoTime() + SECOND;
+        controller.check(now);
+        controller.check(now + 1);
+        Assertions.assertEquals(1, controller.activeBoosts());
+        controller.check(now + SECOND);
+        Assertions.assertEquals(2, controller.activeBoosts());
+
+        done.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        controller.check(now + 2 * SECOND);
+        Assertions.assertEquals(0, controller.activeBoosts(), "boosts of dead threads are released");
+    }
+
+    @Test
+    void testNormalizedNamesShareAHistogram() {
+        RecordingBoost boost = new RecordingBoost();
+        LatencyBoostController controller = new LatencyBoostController(0.99, 0, 4, 10, 16,
+                SpanNameCache.NORMALIZE_NUMERIC, boost);
+        for (int i = 0; i < LatencyHistogram.RECOMPUTE_EVERY; i++) {
+            ReadableSpan span = span(TimeUnit.MILLISECONDS.toNanos(1));
+            Mockito.when(span.getName()).thenReturn("GET /users/" + i);
+            controller.onStart(span);
+            controller.onEnd(span);
+        }
+        // A user id never seen before is timed against the history of the whole route.
+        ReadableSpan slow = span(SECOND);
+        Mockito.when(slow.getName()).thenReturn("GET /users/123456");
+        controller.onStart(slow);
+        controller.check(System.nanoTime() + SECOND);
+        Assertions.assertEquals(1, controller.activeBoosts());
+        controller.onEnd(slow);
+    }
+
+    @Test
+    void testInFlightTracksRootSpans() throws Exception {
+        LatencyBoostController controller = new LatencyBoostController(0.99, 0, 4, 10, 16, 0, new RecordingBoost());
+        ReadableSpan span = span(SECOND);
+        controller.onStart(span);
+        Assertions.assertEquals(1, controller.inFlight());
+        controller.onEnd(span);
+        Assertions.assertEquals(0, controller.inFlight());
+
+        Thread t = new Thread(() -> controller.onStart(span(SECOND)));
+        t.start();
+        t.join();
+        Assertions.assertEquals(1, controller.inFlight());
+        controller.check(System.nanoTime());
+        Assertions.assertEquals(0, controller.inFlight(), "spans of dead threads are no longer in flight");
+    }
+
+    private static final class RecordingBoost implements ProfilingBoost {
+        final List<Thread> started = new ArrayList<>();
+        final List<Thread> stopped = new ArrayList<>();
+
+        @Override
+        public synchronized boolean start(Thread thread) {
+            started.add(thread);
+            return true;
+        }
+
+        @Override
+        public synchronized void stop(Thread thread) {
+            stopped.add(thread);
+        }
+    }
+}
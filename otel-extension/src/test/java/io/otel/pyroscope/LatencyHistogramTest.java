@@ -0,0 +1,29 @@
+package io.otel.pyroscope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    void testBuckets() {
+        for (long v : new long[]{0, 1, 3, 4, 5, 7, 8, 1000, 1_000_000, Long.MAX_VALUE / 2}) {
+            int b = LatencyHistogram.bucket(v);
+            Assertions.assertTrue(LatencyHistogram.upperBound(b) >= v);
+            if (b > 0) {
+                Assertions.assertTrue(LatencyHistogram.upperBound(b - 1) < v);
+            }
+        }
+    }
+
+    @Test
+    void testQuantile() {
+        LatencyHistogram h = new LatencyHistogram(0.99);
+        Assertions.assertEquals(Long.MAX_VALUE, h.quantileNanos());
+        for (int i = 0; i < LatencyHistogram.RECOMPUTE_EVERY * 4; i++) {
+            h.record(i % 200 == 0 ? 100_000_000 : 1_000_000);
+        }
+        long q = h.quantileNanos();
+        Assertions.assertTrue(q >= 1_000_000 && q < 1_300_000, "p99 " + q);
+    }
+}
@@ -0,0 +1,34 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.SpanContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class LinkSamplerTest {
+
+    private static SpanContext spanContext(String traceId, boolean sampled) {
+        SpanContext sc = Mockito.mock(SpanContext.class);
+        Mockito.when(sc.getTraceId()).thenReturn(traceId);
+        Mockito.when(sc.isSampled()).thenReturn(sampled);
+        return sc;
+    }
+
+    @Test
+    void testSampledOnly() {
+        LinkSampler sampler = new LinkSampler(true, 1.0);
+        Assertions.assertTrue(sampler.shouldLink(spanContext("0af7651916cd43dd8448eb211c80319c", true)));
+        Assertions.assertFalse(sampler.shouldLink(spanContext("0af7651916cd43dd8448eb211c80319c", false)));
+        Assertions.assertTrue(LinkSampler.ALL.shouldLink(spanContext("0af7651916cd43dd8448eb211c80319c", false)));
+    }
+
+    @Test
+    void testRatioUsesLowerTraceIdBits() {
+        LinkSampler half = new LinkSampler(false, 0.5);
+        // Lower 64 bits below and above half of Long.MAX_VALUE; the upper half of the id does not matter.
+        Assertions.assertTrue(half.shouldLink(spanContext("ffffffffffffffff1000000000000000", true)));
+        Assertions.assertFalse(half.shouldLink(spanContext("00000000000000007000000000000000", true)));
+        Assertions.assertFalse(half.shouldLink(spanContext("not-a-trace-id", true)));
+        Assertions.assertFalse(new LinkSampler(false, 0.0).shouldLink(spanContext("00000000000000000000000000000001", true)));
+    }
+}
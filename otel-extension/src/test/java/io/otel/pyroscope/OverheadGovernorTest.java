@@ -0,0 +1,69 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.SpanContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class OverheadGovernorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testStepsDownOverBudgetAndBackUp() {
+        List<Integer> changes = new ArrayList<>();
+        // 1% of 2 cpus over a 2 second window.
+        OverheadGovernor governor = new OverheadGovernor(0.01, 2, 2, changes::add);
+        long now = 0;
+
+        // 5% of the capacity: one step down per full window.
+        for (int i = 0; i < 8; i++) {
+            governor.recordSample(SECOND / 10 / OverheadGovernor.SAMPLE_EVERY);
+            governor.tick(now += SECOND);
+        }
+        Assertions.assertEquals(0.05, governor.share(), 0.001);
+        Assertions.assertEquals(OverheadGovernor.ROOT_ONLY, governor.level());
+        Assertions.assertEquals(3, changes.size());
+
+        // Under the budget but above half of it: stays.
+        for (int i = 0; i < 4; i++) {
+            governor.recordSample(SECOND / 70 / OverheadGovernor.SAMPLE_EVERY);
+            governor.tick(now += SECOND);
+        }
+        Assertions.assertEquals(OverheadGovernor.ROOT_ONLY, governor.level());
+
+        for (int i = 0; i < 4; i++) {
+            governor.tick(now += SECOND);
+        }
+        Assertions.assertEquals(OverheadGovernor.NO_SPAN_NAMES, governor.level());
+        Assertions.assertEquals(5, governor.changes());
+        Assertions.assertEquals(OverheadGovernor.NO_SPAN_NAMES, (int) changes.get(changes.size() - 1));
+    }
+
+    @Test
+    void testPolicyLevels() {
+        PyroscopeOtelConfiguration configuration = new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(false)
+                .setAddSpanName(true)
+                .build();
+        LinkPolicy full = LinkPolicy.forLevel(configuration, 0.1, OverheadGovernor.FULL);
+        Assertions.assertFalse(full.rootSpanOnly);
+        Assertions.assertTrue(full.addSpanName);
+
+        LinkPolicy noNames = LinkPolicy.forLevel(configuration, 0.1, OverheadGovernor.NO_SPAN_NAMES);
+        Assertions.assertFalse(noNames.addSpanName);
+        Assertions.assertFalse(noNames.rootSpanOnly);
+
+        LinkPolicy rootOnly = LinkPolicy.forLevel(configuration, 0.1, OverheadGovernor.ROOT_ONLY);
+        Assertions.assertFalse(rootOnly.addSpanName);
+        Assertions.assertTrue(rootOnly.rootSpanOnly);
+        SpanContext spanContext = Mockito.mock(SpanContext.class);
+        Mockito.when(spanContext.getTraceId()).thenReturn("00000000000000007000000000000000");
+        Assertions.assertTrue(full.sampler.shouldLink(spanContext));
+        Assertions.assertFalse(rootOnly.sampler.shouldLink(spanContext), "outside of the 10% sample");
+    }
+}
@@ -1,7 +1,19 @@
 package io.otel.pyroscope;
 
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.pyroscope.javaagent.ProfilerSdk;
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerApiHolder;
+import io.pyroscope.labels.v2.ScopedContext;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Collections;
 
 public class PyroscopeOtelSpanProcessorTest {
 
@@ -13,4 +25,257 @@ public class PyroscopeOtelSpanProcessorTest {
         Assertions.assertEquals(0xcafe, PyroscopeOtelSpanProcessor.parseSpanId("000000000000cafe"));
         Assertions.assertEquals(-4748286662364504709L, PyroscopeOtelSpanProcessor.parseSpanId("be1ab2702609dd7b"));
     }
+
+    @Test
+    void testParseHex64() {
+        String traceId = "0af7651916cd43dd8448eb211c80319c";
+        Assertions.assertEquals(0x0af7651916cd43ddL, PyroscopeOtelSpanProcessor.parseHex64(traceId, 0));
+        Assertions.assertEquals(0x8448eb211c80319cL, PyroscopeOtelSpanProcessor.parseHex64(traceId, 16));
+        Assertions.assertEquals(0xcafeL, PyroscopeOtelSpanProcessor.parseHex64("000000000000CAFE", 0));
+        Assertions.assertThrows(NumberFormatException.class,
+                () -> PyroscopeOtelSpanProcessor.parseHex64("000000000000cafg", 0));
+        Assertions.assertThrows(IndexOutOfBoundsException.class,
+                () -> PyroscopeOtelSpanProcessor.parseHex64("cafe", 0));
+    }
+
+    @Test
+    void testProfileIdOnlyForLongSpans() {
+        PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(false)
+                .setProfileIdMinDuration(Duration.ofMillis(10))
+                .build());
+        AttributeKey<String> profileId = AttributeKey.stringKey("pyroscope.profile.id");
+        SpanContext spanContext = Mockito.mock(SpanContext.class);
+        Mockito.when(spanContext.getSpanId()).thenReturn("000000000000cafe");
+
+        ReadWriteSpan shortSpan = Mockito.mock(ReadWriteSpan.class);
+        Mockito.when(shortSpan.getSpanContext()).thenReturn(spanContext);
+        Mockito.when(shortSpan.getLatencyNanos()).thenReturn(Duration.ofMillis(5).toNanos());
+        processor.onEnding(shortSpan);
+        Mockito.verify(shortSpan, Mockito.never()).setAttribute(profileId, "000000000000cafe");
+
+        ReadWriteSpan longSpan = Mockito.mock(ReadWriteSpan.class);
+        Mockito.when(longSpan.getSpanContext()).thenReturn(spanContext);
+        Mockito.when(longSpan.getLatencyNanos()).thenReturn(Duration.ofMillis(20).toNanos());
+        processor.onEnding(longSpan);
+        Mockito.verify(longSpan).setAttribute(profileId, "000000000000cafe");
+    }
+
+    @Test
+    void testNoProfilerPublishedYet() {
+        Assertions.assertNull(ProfilerApiHolder.INSTANCE.get());
+        PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(false)
+                .build());
+        SpanContext spanContext = Mockito.mock(SpanContext.class);
+        Mockito.when(spanContext.getSpanId()).thenReturn("000000000000cafe");
+        Mockito.when(spanContext.getTraceId()).thenReturn("0af7651916cd43dd8448eb211c80319c");
+        ReadWriteSpan span = Mockito.mock(ReadWriteSpan.class);
+        Mockito.when(span.getSpanContext()).thenReturn(spanContext);
+
+        processor.onStart(Context.root(), span);
+        processor.onEnd(span);
+        Mockito.verify(span, Mockito.never()).setAttribute(AttributeKey.stringKey("pyroscope.profile.id"), "000000000000cafe");
+        Assertions.assertFalse(processor.isWatchingProfiler());
+    }
+
+    @Test
+    void testProfilerNotCalledWhileInactive() throws InterruptedException {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        ProfilerApiHolder.INSTANCE.set(api);
+        try {
+            PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                    .setRootSpanOnly(false)
+                    .build());
+            SpanContext spanContext = Mockito.mock(SpanContext.class);
+            Mockito.when(spanContext.getSpanId()).thenReturn("000000000000cafe");
+            Mockito.when(spanContext.getTraceId()).thenReturn("0af7651916cd43dd8448eb211c80319c");
+            ReadWriteSpan span = Mockito.mock(ReadWriteSpan.class);
+            Mockito.when(span.getSpanContext()).thenReturn(spanContext);
+            Mockito.when(span.getName()).thenReturn("GET /");
+
+            processor.onStart(Context.root(), span);
+            processor.onEnd(span);
+            Mockito.verify(api, Mockito.never()).registerConstant("GET /");
+            Mockito.verify(api, Mockito.never()).setTracingContext(0xcafe, 0);
+            Mockito.verify(api, Mockito.never()).setTracingContext(0, 0);
+            Mockito.verify(span, Mockito.never()).getSpanContext();
+
+            // Profiling started later on the same instance: linking resumes once the watch sees it.
+            Assertions.assertTrue(processor.isWatchingProfiler());
+            Mockito.when(api.isProfilingStarted()).thenReturn(true);
+            long deadline = System.nanoTime() + 10 * PyroscopeOtelSpanProcessor.PROFILER_WATCH_MILLIS * 1_000_000L;
+            while (processor.isWatchingProfiler() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertFalse(processor.isWatchingProfiler());
+            Assertions.assertTrue(processor.getProfiler().active);
+            processor.onStart(Context.root(), span);
+            Mockito.verify(api).setTracingContext(0xcafe, 0);
+            processor.onEnd(span);
+            Mockito.verify(api).setTracingContext(0, 0);
+            processor.shutdown();
+        } finally {
+            ProfilerApiHolder.INSTANCE.set(null);
+        }
+    }
+
+    @Test
+    void testTraceIdWrittenOncePerTrace() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.isProfilingStarted()).thenReturn(true);
+        ProfilerApiHolder.INSTANCE.set(api);
+        try {
+            PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                    .setRootSpanOnly(false)
+                    .setAddSpanName(false)
+                    .build());
+            ReadWriteSpan root = span("000000000000cafe", "0af7651916cd43dd8448eb211c80319c");
+            ReadWriteSpan child = span("000000000000beef", "0af7651916cd43dd8448eb211c80319c");
+            ReadWriteSpan other = span("000000000000f00d", "4bf92f3577b34da6a3ce929d0e0e4736");
+
+            processor.onStart(Context.root(), root);
+            processor.onStart(Context.root(), child);
+            Mockito.verify(api).setTracingContext(0xbeef, 0);
+            processor.onEnd(child);
+            Mockito.verify(api, Mockito.times(2)).setTracingContext(0xcafe, 0);
+            Mockito.verify(api).setTraceId("0af7651916cd43dd8448eb211c80319c");
+
+            // A span of another trace on the same thread writes its own trace id.
+            processor.onStart(Context.root(), other);
+            Mockito.verify(api).setTraceId("4bf92f3577b34da6a3ce929d0e0e4736");
+            processor.onEnd(other);
+            Mockito.verify(api, Mockito.times(2)).setTraceId("0af7651916cd43dd8448eb211c80319c");
+
+            // Once cleared, the next span writes the trace id again even if it is the same.
+            processor.onEnd(root);
+            Mockito.verify(api).clearTraceId();
+            processor.onStart(Context.root(), child);
+            Mockito.verify(api, Mockito.times(3)).setTraceId("0af7651916cd43dd8448eb211c80319c");
+            processor.onEnd(child);
+            processor.shutdown();
+        } finally {
+            ProfilerApiHolder.INSTANCE.set(null);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void testAttributeLabelContextReused() {
+        ProfilerApi api = Mockito.spy(new ProfilerSdk());
+        Mockito.doReturn(true).when(api).isProfilingStarted();
+        ProfilerApiHolder.INSTANCE.set(api);
+        ScopedContext.ENABLED.set(true);
+        PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(false)
+                .setAddSpanName(false)
+                .setAttributeLabels(Collections.singletonList("http.route"))
+                .build());
+        try {
+            ProfilerBinding.LabelContext context = processor.getProfiler()
+                    .labelContext(api.createScopedContext(Collections.singletonMap("http_route", "/")));
+            Assertions.assertNotNull(context);
+            context.close();
+            Mockito.clearInvocations(api);
+
+            for (String spanId : new String[]{"000000000000cafe", "000000000000beef", "000000000000f00d"}) {
+                ReadWriteSpan span = span(spanId, "0af7651916cd43dd8448eb211c80319c");
+                Mockito.when(span.getAttribute(AttributeKey.stringKey("http.route"))).thenReturn("/users/{id}");
+                processor.onStart(Context.root(), span);
+                processor.onEnd(span);
+            }
+            Mockito.verify(api, Mockito.times(1)).createScopedContext(Collections.singletonMap("http_route", "/users/{id}"));
+        } finally {
+            processor.shutdown();
+            ScopedContext.ENABLED.set(false);
+            ProfilerApiHolder.INSTANCE.set(null);
+        }
+    }
+
+    @Test
+    void testLinkDecidedAtStart() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.isProfilingStarted()).thenReturn(true);
+        ProfilerApiHolder.INSTANCE.set(api);
+        PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                .setRootSpanOnly(false)
+                .setAddSpanName(false)
+                .setTimelineSize(8)
+                .build());
+        try {
+            SpanContext parent = Mockito.mock(SpanContext.class);
+            Mockito.when(parent.isRemote()).thenReturn(false);
+            ReadWriteSpan linked = span("000000000000cafe", "0af7651916cd43dd8448eb211c80319c");
+            ReadWriteSpan skipped = span("000000000000beef", "0af7651916cd43dd8448eb211c80319c");
+            for (ReadWriteSpan child : new ReadWriteSpan[]{linked, skipped}) {
+                Mockito.when(child.getParentSpanContext()).thenReturn(parent);
+                Mockito.when(child.getAttribute(AttributeKey.longKey("thread.id")))
+                        .thenReturn(Thread.currentThread().getId());
+            }
+
+            // Linked at full level, ended at root-only level: the context is still restored and the span recorded.
+            processor.onStart(Context.root(), linked);
+            processor.setGovernorLevel(OverheadGovernor.ROOT_ONLY);
+            processor.onEnd(linked);
+            Mockito.verify(api).clearTraceId();
+            Assertions.assertEquals(1, processor.timeline().snapshot().size());
+
+            // Skipped at root-only level, ended at full level: nothing to undo.
+            processor.onStart(Context.root(), skipped);
+            processor.setGovernorLevel(OverheadGovernor.FULL);
+            processor.onEnd(skipped);
+            Mockito.verify(api).setTracingContext(0xcafe, 0);
+            Mockito.verify(api, Mockito.never()).setTracingContext(0xbeef, 0);
+            Mockito.verify(api, Mockito.times(1)).clearTraceId();
+            Assertions.assertEquals(1, processor.timeline().snapshot().size());
+        } finally {
+            processor.shutdown();
+            ProfilerApiHolder.INSTANCE.set(null);
+        }
+    }
+
+    private static ReadWriteSpan span(String spanId, String traceId) {
+        SpanContext spanContext = Mockito.mock(SpanContext.class);
+        Mockito.when(spanContext.getSpanId()).thenReturn(spanId);
+        Mockito.when(spanContext.getTraceId()).thenReturn(traceId);
+        ReadWriteSpan span = Mockito.mock(ReadWriteSpan.class);
+        Mockito.when(span.getSpanContext()).thenReturn(spanContext);
+        return span;
+    }
+
+    @Test
+    void testVirtualThreadUnmountAndMount() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.isProfilingStarted()).thenReturn(true);
+        ProfilerApiHolder.INSTANCE.set(api);
+        try {
+            PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                    .setRootSpanOnly(false)
+                    .setAddSpanName(false)
+                    .build());
+            SpanContext spanContext = Mockito.mock(SpanContext.class);
+            Mockito.when(spanContext.getSpanId()).thenReturn("000000000000cafe");
+            Mockito.when(spanContext.getTraceId()).thenReturn("0af7651916cd43dd8448eb211c80319c");
+            ReadWriteSpan span = Mockito.mock(ReadWriteSpan.class);
+            Mockito.when(span.getSpanContext()).thenReturn(spanContext);
+
+            processor.onStart(Context.root(), span);
+            Mockito.verify(api).setTracingContext(0xcafe, 0);
+
+            processor.onVirtualThreadUnmount();
+            Mockito.verify(api).setTracingContext(0, 0);
+            processor.onVirtualThreadMount();
+            Mockito.verify(api, Mockito.times(2)).setTracingContext(0xcafe, 0);
+
+            // Once the span ended the virtual thread has no context to carry around.
+            processor.onEnd(span);
+            processor.onVirtualThreadUnmount();
+            processor.onVirtualThreadMount();
+            Mockito.verify(api, Mockito.times(2)).setTracingContext(0, 0);
+            Mockito.verify(api, Mockito.times(2)).setTracingContext(0xcafe, 0);
+            processor.shutdown();
+        } finally {
+            ProfilerApiHolder.INSTANCE.set(null);
+        }
+    }
 }
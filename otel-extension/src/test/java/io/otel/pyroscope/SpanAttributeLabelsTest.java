@@ -0,0 +1,65 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class SpanAttributeLabelsTest {
+
+    private static ReadableSpan span(String route, String method) {
+        ReadableSpan span = Mockito.mock(ReadableSpan.class);
+        Mockito.when(span.getAttribute(AttributeKey.stringKey("http.route"))).thenReturn(route);
+        Mockito.when(span.getAttribute(AttributeKey.stringKey("rpc.method"))).thenReturn(method);
+        return span;
+    }
+
+    @Test
+    void testLabels() {
+        SpanAttributeLabels labels = new SpanAttributeLabels(Arrays.asList("http.route", "rpc.method"), 16);
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("http_route", "/users/{id}");
+        Assertions.assertEquals(expected, labels.labels(span("/users/{id}", null)));
+        Assertions.assertSame(labels.labels(span("/users/{id}", null)), labels.labels(span("/users/{id}", null)));
+
+        expected.put("rpc_method", "Get");
+        Assertions.assertEquals(expected, labels.labels(span("/users/{id}", "Get")));
+        Assertions.assertNull(labels.labels(span(null, null)));
+    }
+
+    @Test
+    void testValueCap() {
+        SpanAttributeLabels labels = new SpanAttributeLabels(Collections.singletonList("http.route"), 2);
+        Assertions.assertEquals("/a", labels.labels(span("/a", null)).get("http_route"));
+        Assertions.assertEquals("/b", labels.labels(span("/b", null)).get("http_route"));
+        Assertions.assertEquals(SpanAttributeLabels.OVERFLOW, labels.labels(span("/c", null)).get("http_route"));
+        Assertions.assertEquals("/a", labels.labels(span("/a", null)).get("http_route"));
+    }
+
+    @Test
+    void testCombinationCap() {
+        SpanAttributeLabels labels = new SpanAttributeLabels(Arrays.asList("http.route", "rpc.method"),
+                SpanAttributeLabels.MAX_COMBINATIONS * 2);
+        for (int i = 0; labels.labels(span("/" + i, "Get")).get("http_route").equals("/" + i); i++) {
+            Assertions.assertTrue(i < SpanAttributeLabels.MAX_COMBINATIONS);
+        }
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("http_route", SpanAttributeLabels.OVERFLOW);
+        expected.put("rpc_method", SpanAttributeLabels.OVERFLOW);
+        Assertions.assertEquals(expected, labels.labels(span("/new", "Put")));
+        Assertions.assertEquals("Get", labels.labels(span("/0", "Get")).get("rpc_method"));
+    }
+
+    @Test
+    void testLabelName() {
+        Assertions.assertEquals("http_route", SpanAttributeLabels.labelName("http.route"));
+        Assertions.assertEquals("messaging_destination_name", SpanAttributeLabels.labelName("messaging.destination.name"));
+        Assertions.assertEquals("_1x", SpanAttributeLabels.labelName("1x"));
+    }
+}
@@ -0,0 +1,98 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+public class SpanContextStackTest {
+
+    @Test
+    void testChildRestoresParent() {
+        SpanContextStack stack = new SpanContextStack();
+        ReadableSpan parent = Mockito.mock(ReadableSpan.class);
+        ReadableSpan child = Mockito.mock(ReadableSpan.class);
+
+        stack.push(parent, 1, 10, 10, 1, 0, 0, 0);
+        stack.push(child, 2, 20, 10, 1, 0, 0, 0);
+        Assertions.assertEquals(2, stack.topSpanId());
+
+        Assertions.assertTrue(stack.remove(child));
+        Assertions.assertEquals(1, stack.topSpanId());
+        Assertions.assertEquals(10, stack.topSpanName());
+        Assertions.assertEquals(1, stack.topTraceIdLow());
+
+        Assertions.assertTrue(stack.remove(parent));
+        Assertions.assertTrue(stack.isEmpty());
+    }
+
+    @Test
+    void testOutOfOrderEnd() {
+        SpanContextStack stack = new SpanContextStack();
+        ReadableSpan parent = Mockito.mock(ReadableSpan.class);
+        ReadableSpan child = Mockito.mock(ReadableSpan.class);
+
+        stack.push(parent, 1, 10, 10, 1, 0, 0, 0);
+        stack.push(child, 2, 20, 10, 1, 0, 0, 0);
+
+        // Parent ends first: the child keeps running with its own context.
+        Assertions.assertFalse(stack.remove(parent));
+        Assertions.assertEquals(2, stack.topSpanId());
+        Assertions.assertEquals(1, stack.size());
+
+        Assertions.assertTrue(stack.remove(child));
+        Assertions.assertTrue(stack.isEmpty());
+    }
+
+    @Test
+    void testUnknownSpan() {
+        SpanContextStack stack = new SpanContextStack();
+        ReadableSpan span = Mockito.mock(ReadableSpan.class);
+        stack.push(span, 1, 10, 10, 1, 0, 0, 0);
+
+        Assertions.assertFalse(stack.remove(Mockito.mock(ReadableSpan.class)));
+        Assertions.assertEquals(1, stack.topSpanId());
+    }
+
+    @Test
+    void testSpanEndedOnAnotherThreadIsDropped() {
+        SpanContextStack stack = new SpanContextStack();
+        ReadableSpan parent = Mockito.mock(ReadableSpan.class);
+        ReadableSpan handedOff = Mockito.mock(ReadableSpan.class);
+        ReadableSpan child = Mockito.mock(ReadableSpan.class);
+
+        stack.push(parent, 1, 10, 10, 1, 0, 0, 0);
+        stack.push(handedOff, 2, 20, 20, 2, 0, 0, 0);
+        stack.push(child, 3, 30, 20, 2, 0, 0, 0);
+        Mockito.when(handedOff.hasEnded()).thenReturn(true);
+
+        Assertions.assertTrue(stack.remove(child));
+        Assertions.assertEquals(1, stack.topSpanId());
+        Assertions.assertEquals(1, stack.topTraceIdLow());
+    }
+
+    @Test
+    void testDepthIsBounded() {
+        SpanContextStack stack = new SpanContextStack();
+        for (int i = 0; i < SpanContextStack.MAX_DEPTH + 10; i++) {
+            stack.push(Mockito.mock(ReadableSpan.class), i, i, 10, 1, 0, 0, 0);
+        }
+        Assertions.assertEquals(SpanContextStack.MAX_DEPTH, stack.size());
+        Assertions.assertEquals(SpanContextStack.MAX_DEPTH + 9, stack.topSpanId());
+    }
+
+    @Test
+    void testIndexOf() {
+        SpanContextStack stack = new SpanContextStack();
+        ReadableSpan parent = Mockito.mock(ReadableSpan.class);
+        ReadableSpan child = Mockito.mock(ReadableSpan.class);
+        stack.push(parent, 1, 10, 10, 1, 100, 4096, 7000000);
+        stack.push(child, 2, 20, 10, 1, 250, 0, 9000000);
+
+        Assertions.assertEquals(100, stack.cpuStart(stack.indexOf(parent)));
+        Assertions.assertEquals(250, stack.cpuStart(stack.indexOf(child)));
+        Assertions.assertEquals(4096, stack.allocStart(stack.indexOf(parent)));
+        Assertions.assertEquals(9000000, stack.lockStart(stack.indexOf(child)));
+        Assertions.assertEquals(-1, stack.indexOf(Mockito.mock(ReadableSpan.class)));
+    }
+}
@@ -0,0 +1,72 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.pyroscope.javaagent.api.ProfilerApi;
+import io.pyroscope.javaagent.api.ProfilerApiHolder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpanJfrEventsTest {
+
+    @Test
+    void testStartAndEndAreRecorded() throws IOException {
+        Assumptions.assumeTrue(OtelCompat.hasJfr());
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.isProfilingStarted()).thenReturn(true);
+        Mockito.when(api.registerConstant("GET /")).thenReturn(7L);
+        ProfilerApiHolder.INSTANCE.set(api);
+        Path file = Files.createTempFile("pyroscope-spans-", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(SpanJfrEvents.START_EVENT);
+            recording.enable(SpanJfrEvents.END_EVENT);
+            recording.start();
+
+            PyroscopeOtelSpanProcessor processor = new PyroscopeOtelSpanProcessor(new PyroscopeOtelConfiguration.Builder()
+                    .setRootSpanOnly(false)
+                    .setJfrSpanEvents(true)
+                    .build());
+            SpanContext spanContext = Mockito.mock(SpanContext.class);
+            Mockito.when(spanContext.getSpanId()).thenReturn("000000000000cafe");
+            Mockito.when(spanContext.getTraceId()).thenReturn("0af7651916cd43dd8448eb211c80319c");
+            ReadWriteSpan span = Mockito.mock(ReadWriteSpan.class);
+            Mockito.when(span.getSpanContext()).thenReturn(spanContext);
+            Mockito.when(span.getName()).thenReturn("GET /");
+            processor.onStart(Context.root(), span);
+            processor.onEnd(span);
+            processor.shutdown();
+
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+                if (name.equals(SpanJfrEvents.START_EVENT) || name.equals(SpanJfrEvents.END_EVENT)) {
+                    events.add(event);
+                }
+            }
+            Assertions.assertEquals(2, events.size());
+            for (RecordedEvent event : events) {
+                Assertions.assertEquals("000000000000cafe", event.getString("spanId"));
+                Assertions.assertEquals("0af7651916cd43dd8448eb211c80319c", event.getString("traceId"));
+                Assertions.assertEquals(7, event.getLong("spanName"));
+                Assertions.assertEquals(Thread.currentThread().getName(), event.getThread().getJavaName());
+            }
+        } finally {
+            ProfilerApiHolder.INSTANCE.set(null);
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.otel.pyroscope;
+
+import io.pyroscope.javaagent.api.ProfilerApi;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+public class SpanNameCacheTest {
+
+    @Test
+    void testNormalize() {
+        int all = SpanNameCache.NORMALIZE_NUMERIC | SpanNameCache.NORMALIZE_HEX;
+        Assertions.assertEquals("GET /users/{id}", SpanNameCache.normalize("GET /users/123", SpanNameCache.NORMALIZE_NUMERIC));
+        Assertions.assertEquals("GET /users/{id}/orders/{id}?page=2",
+                SpanNameCache.normalize("GET /users/1/orders/42?page=2", SpanNameCache.NORMALIZE_NUMERIC));
+        Assertions.assertEquals("GET /items/{id}",
+                SpanNameCache.normalize("GET /items/550e8400-e29b-41d4-a716-446655440000", all));
+        Assertions.assertEquals("GET /items/deadbeef", SpanNameCache.normalize("GET /items/deadbeef", all));
+        Assertions.assertEquals("GET /v2/items", SpanNameCache.normalize("GET /v2/items", all));
+        String unchanged = "SELECT users";
+        Assertions.assertSame(unchanged, SpanNameCache.normalize(unchanged, all));
+        Assertions.assertEquals("GET /users/123", SpanNameCache.normalize("GET /users/123", 0));
+    }
+
+    @Test
+    void testParseRules() {
+        Assertions.assertEquals(SpanNameCache.NORMALIZE_NUMERIC | SpanNameCache.NORMALIZE_HEX,
+                SpanNameCache.parseRules(Arrays.asList("numeric", " HEX ")));
+        Assertions.assertEquals(0, SpanNameCache.parseRules(Arrays.asList("", " ")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> SpanNameCache.parseRules(Arrays.asList("numeric", "bogus")));
+    }
+
+    @Test
+    void testHitDoesNotRegisterAgain() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.registerConstant("GET /")).thenReturn(7L);
+        SpanNameCache cache = new SpanNameCache(16, "other", 0);
+
+        Assertions.assertEquals(7, cache.id(api, "GET /"));
+        Assertions.assertEquals(7, cache.id(api, "GET /"));
+        Assertions.assertEquals(1, cache.size());
+        Mockito.verify(api, Mockito.times(1)).registerConstant("GET /");
+    }
+
+    @Test
+    void testLookupsCountedOnce() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.registerConstant("GET /")).thenReturn(7L);
+        SpanNameCache cache = new SpanNameCache(16, "other", 0);
+
+        cache.id(api, "GET /");
+        Assertions.assertEquals(0, cache.lookups());
+        cache.countLookups();
+        cache.id(api, "GET /");
+        cache.id(api, "GET /");
+        Assertions.assertEquals(2, cache.lookups());
+        Assertions.assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void testOverflow() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.registerConstant("a")).thenReturn(1L);
+        Mockito.when(api.registerConstant("b")).thenReturn(2L);
+        Mockito.when(api.registerConstant("other")).thenReturn(99L);
+        SpanNameCache cache = new SpanNameCache(2, "other", 0);
+
+        Assertions.assertEquals(1, cache.id(api, "a"));
+        Assertions.assertEquals(2, cache.id(api, "b"));
+        Assertions.assertEquals(99, cache.id(api, "c"));
+        Assertions.assertEquals(1, cache.id(api, "a"));
+        Assertions.assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testFailedRegistration() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.registerConstant("a")).thenReturn(0L);
+        Mockito.when(api.registerConstant("b")).thenThrow(new IllegalStateException("dictionary full"));
+        Mockito.when(api.registerConstant("other")).thenReturn(99L);
+        SpanNameCache cache = new SpanNameCache(16, "other", 0);
+
+        Assertions.assertEquals(99, cache.id(api, "a"));
+        Assertions.assertEquals(99, cache.id(api, "a"));
+        Assertions.assertThrows(IllegalStateException.class, () -> cache.id(api, "b"));
+        Assertions.assertEquals(0, cache.id(api, "b"));
+        Mockito.verify(api, Mockito.times(1)).registerConstant("a");
+        Mockito.verify(api, Mockito.times(1)).registerConstant("b");
+    }
+
+    @Test
+    void testNormalizedNamesShareAnEntry() {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.registerConstant("GET /users/{id}")).thenReturn(5L);
+        SpanNameCache cache = new SpanNameCache(1, "other", SpanNameCache.NORMALIZE_NUMERIC);
+
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertEquals(5, cache.id(api, "GET /users/" + i));
+        }
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testConcurrentMissRegistersOnce() throws Exception {
+        ProfilerApi api = Mockito.mock(ProfilerApi.class);
+        Mockito.when(api.registerConstant("GET /")).thenReturn(7L);
+        SpanNameCache cache = new SpanNameCache(16, "other", 0);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        long[] ids = new long[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            int n = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ids[n] = cache.id(api, "GET /");
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (long id : ids) {
+            Assertions.assertEquals(7, id);
+        }
+        Mockito.verify(api, Mockito.times(1)).registerConstant("GET /");
+        Assertions.assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void testResetOnProfilerSwap() {
+        ProfilerApi first = Mockito.mock(ProfilerApi.class);
+        ProfilerApi second = Mockito.mock(ProfilerApi.class);
+        Mockito.when(first.registerConstant("a")).thenReturn(1L);
+        Mockito.when(second.registerConstant("a")).thenReturn(2L);
+        SpanNameCache cache = new SpanNameCache(16, "other", 0);
+
+        Assertions.assertEquals(1, cache.id(first, "a"));
+        Assertions.assertEquals(2, cache.id(second, "a"));
+    }
+}
@@ -0,0 +1,26 @@
+package io.otel.pyroscope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SpanProcessorMetricsTest {
+
+    @Test
+    void testTimer() {
+        SpanProcessorMetrics.Timer timer = new SpanProcessorMetrics.Timer("onStart");
+        timer.record(100);
+        timer.record(250);
+        timer.record(251);
+        timer.record(1_000_000);
+        Assertions.assertEquals(4, timer.count.sum());
+        Assertions.assertEquals(1_000_601, timer.sum.sum());
+    }
+
+    @Test
+    void testHolderSwaps() {
+        SpanProcessorMetrics metrics = new SpanProcessorMetrics(() -> 0, () -> 0, () -> 0, null);
+        metrics.profilerBound(new Object(), false);
+        metrics.profilerBound(new Object(), true);
+        Assertions.assertEquals(1, metrics.holderSwaps.sum());
+    }
+}
@@ -0,0 +1,125 @@
+package io.otel.pyroscope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class SpanTimelineTest {
+
+    @Test
+    void testKeepsLastEntriesPerThread() {
+        SpanTimeline timeline = new SpanTimeline(4, 8, Collections::emptyMap);
+        for (int i = 1; i <= 10; i++) {
+            timeline.record(i, 0, 1, 0, i * 100, i * 100 + i);
+        }
+        // The oldest slot is the one the thread would write next, it is not reported.
+        List<SpanTimeline.Row> rows = timeline.snapshot();
+        Assertions.assertEquals(3, rows.size());
+        Assertions.assertEquals(8, rows.get(0).spanId());
+        Assertions.assertEquals(10, rows.get(2).spanId());
+        Assertions.assertEquals(10, rows.get(2).durationNanos());
+    }
+
+    @Test
+    void testThreadLimit() throws InterruptedException {
+        SpanTimeline timeline = new SpanTimeline(4, 1, Collections::emptyMap);
+        timeline.record(1, 0, 1, 0, 100, 200);
+        Thread other = new Thread(() -> timeline.record(2, 0, 1, 0, 150, 250));
+        other.start();
+        other.join();
+        Assertions.assertEquals(1, timeline.snapshot().size());
+        Assertions.assertEquals(1, timeline.getThreads());
+    }
+
+    @Test
+    void testRingOfTerminatedThreadIsReused() throws InterruptedException {
+        SpanTimeline timeline = new SpanTimeline(4, 1, Collections::emptyMap);
+        Thread first = new Thread(() -> timeline.record(1, 0, 1, 0, 100, 200));
+        first.start();
+        first.join();
+        Thread second = new Thread(() -> timeline.record(2, 0, 1, 0, 300, 400));
+        second.start();
+        second.join();
+        List<SpanTimeline.Row> rows = timeline.snapshot();
+        Assertions.assertEquals(1, rows.size());
+        Assertions.assertEquals(2, rows.get(0).spanId());
+    }
+
+    @Test
+    void testThreadWithoutRingRetries() throws Exception {
+        Assertions.assertEquals(1, recordAfterRingFreed(0));
+        // Within the retry interval the ring stays unclaimed.
+        Assertions.assertEquals(0, recordAfterRingFreed(Long.MAX_VALUE / 2));
+    }
+
+    /**
+     * A thread finds the only ring taken, the ring's owner terminates, and the thread records again. Returns the
+     * number of entries of that thread.
+     */
+    private static int recordAfterRingFreed(long claimRetryNanos) throws InterruptedException, ExecutionException {
+        SpanTimeline timeline = new SpanTimeline(4, 1, Collections::emptyMap, claimRetryNanos);
+        ExecutorService late = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch recorded = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Thread first = new Thread(() -> {
+                timeline.record(1, 0, 1, 0, 100, 200);
+                recorded.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            first.start();
+            recorded.await();
+            late.submit(() -> timeline.record(2, 0, 1, 0, 150, 250)).get();
+            release.countDown();
+            first.join();
+            late.submit(() -> timeline.record(3, 0, 1, 0, 300, 400)).get();
+        } finally {
+            late.shutdown();
+        }
+        int n = 0;
+        for (SpanTimeline.Row row : timeline.snapshot()) {
+            Assertions.assertNotEquals(2, row.spanId());
+            if (row.spanId() == 3) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    void testSpanOfAnotherThread() {
+        SpanTimeline timeline = new SpanTimeline(4, 8, Collections::emptyMap);
+        timeline.record(1, 0, 1, 0, 100, 200, 4242, "worker-1");
+        List<SpanTimeline.Row> rows = timeline.snapshot();
+        Assertions.assertEquals(1, rows.size());
+        Assertions.assertEquals(4242, rows.get(0).threadId);
+        Assertions.assertEquals("worker-1", rows.get(0).threadName);
+    }
+
+    @Test
+    void testCsv() throws IOException {
+        SpanTimeline timeline = new SpanTimeline(4, 8, () -> Collections.singletonMap(7L, "GET /a,b"));
+        timeline.record(0xcafeL, 0x0af7651916cd43ddL, 0x8448eb211c80319cL, 7, 1000, 3000);
+
+        StringWriter out = new StringWriter();
+        timeline.write(out);
+        String[] lines = out.toString().split("\n");
+        Assertions.assertEquals(2, lines.length);
+        Assertions.assertTrue(lines[0].startsWith("thread_id,thread_name,span_id,trace_id,span_name,"));
+        String expected = Thread.currentThread().getId() + "," + Thread.currentThread().getName()
+                + ",000000000000cafe,0af7651916cd43dd8448eb211c80319c,\"GET /a,b\",";
+        Assertions.assertTrue(lines[1].startsWith(expected), lines[1]);
+        Assertions.assertTrue(lines[1].endsWith(",2000"), lines[1]);
+    }
+}
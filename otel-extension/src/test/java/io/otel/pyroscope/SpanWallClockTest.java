@@ -0,0 +1,25 @@
+package io.otel.pyroscope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+public class SpanWallClockTest {
+
+    @Test
+    void testArgumentsAddWallAndFilter() {
+        Assertions.assertEquals("wall=10ms,filter", SpanWallClock.arguments(null, Duration.ofMillis(10)));
+        Assertions.assertEquals("wall=10ms,filter", SpanWallClock.arguments("", Duration.ofMillis(10)));
+        Assertions.assertEquals("cstack=no,wall=20ms,filter",
+                SpanWallClock.arguments(" cstack=no, ", Duration.ofMillis(20)));
+        Assertions.assertEquals("wall=1ms,filter", SpanWallClock.arguments(null, Duration.ZERO));
+    }
+
+    @Test
+    void testArgumentsKeepUserSettings() {
+        Assertions.assertEquals("wall=50ms,filter", SpanWallClock.arguments("wall=50ms", Duration.ofMillis(10)));
+        Assertions.assertEquals("filter=1,wall=10ms", SpanWallClock.arguments("filter=1", Duration.ofMillis(10)));
+        Assertions.assertEquals("filter,wall", SpanWallClock.arguments("filter,wall", Duration.ofMillis(10)));
+    }
+}
@@ -0,0 +1,59 @@
+package io.otel.pyroscope;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class ThreadCountersTest {
+
+    static volatile Object sink;
+
+    @Test
+    void testAllocatedBytes() {
+        Assumptions.assumeTrue(ThreadCounters.enableAllocatedBytes());
+        long before = ThreadCounters.allocatedBytes();
+        for (int i = 0; i < 16; i++) {
+            sink = new byte[64 * 1024];
+        }
+        Assertions.assertTrue(ThreadCounters.allocatedBytes() - before >= 16 * 64 * 1024);
+    }
+
+    @Test
+    void testCpuTime() {
+        Assumptions.assumeTrue(ThreadCounters.enableCpuTime());
+        long before = ThreadCounters.cpuTime();
+        long x = 0;
+        for (int i = 0; i < 10_000_000; i++) {
+            x += i * 31L;
+        }
+        sink = x;
+        Assertions.assertTrue(ThreadCounters.cpuTime() > before);
+    }
+
+    @Test
+    void testBlockedTime() throws Exception {
+        Assumptions.assumeTrue(ThreadCounters.enableBlockedTime());
+        Object lock = new Object();
+        CountDownLatch held = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (lock) {
+                held.countDown();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        held.await();
+        long before = ThreadCounters.blockedTime();
+        synchronized (lock) {
+            sink = lock;
+        }
+        holder.join();
+        Assertions.assertTrue(ThreadCounters.blockedTime() - before >= 50_000_000L);
+    }
+}
@@ -0,0 +1,149 @@
+package io.otel.pyroscope;
+
+import io.opentelemetry.javaagent.extension.instrumentation.TypeTransformer;
+import io.otel.pyroscope.vt.VirtualThreadHooks;
+import net.bytebuddy.agent.ByteBuddyAgent;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.matcher.ElementMatchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+public class VirtualThreadSupportTest {
+
+    @Test
+    void testHooksJar() throws IOException {
+        byte[] jar = VirtualThreadSupport.hooksJar();
+        Assertions.assertArrayEquals(jar, VirtualThreadSupport.hooksJar());
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar))) {
+            JarEntry entry = in.getNextJarEntry();
+            Assertions.assertEquals("io/otel/pyroscope/vt/VirtualThreadHooks.class", entry.getName());
+            Assertions.assertNull(in.getNextJarEntry());
+        }
+    }
+
+    @Test
+    void testHooks() {
+        AtomicInteger mounts = new AtomicInteger();
+        AtomicInteger unmounts = new AtomicInteger();
+        VirtualThreadHooks.mounted();
+        VirtualThreadHooks.onMount = mounts::incrementAndGet;
+        VirtualThreadHooks.onUnmount = unmounts::incrementAndGet;
+        try {
+            VirtualThreadHooks.unmounting();
+            VirtualThreadHooks.mounted();
+            VirtualThreadHooks.mounted();
+            Assertions.assertEquals(2, mounts.get());
+            Assertions.assertEquals(1, unmounts.get());
+        } finally {
+            VirtualThreadHooks.onMount = null;
+            VirtualThreadHooks.onUnmount = null;
+        }
+    }
+
+    /**
+     * Applies {@link VirtualThreadInstrumentation} to the running JVM, the same way the agent does: hooks appended
+     * to the bootstrap class path first, then {@code java.lang.VirtualThread} retransformed. A virtual thread that
+     * parks has to unmount and mount again through the advice.
+     */
+    @Test
+    void testAdviceOnVirtualThread() throws Exception {
+        Assumptions.assumeTrue(VirtualThreadSupport.isSupported(), "virtual threads need Java 21");
+        Instrumentation instrumentation = ByteBuddyAgent.install();
+        Class<?> hooks = VirtualThreadSupport.appendHooks(instrumentation);
+        Assertions.assertNotNull(hooks);
+        Assertions.assertNull(hooks.getClassLoader());
+
+        VirtualThreadInstrumentation instrumentationModule = new VirtualThreadInstrumentation();
+        AdviceCollector advice = new AdviceCollector();
+        instrumentationModule.transform(advice);
+        ClassFileTransformer transformer = new AgentBuilder.Default()
+                .disableClassFormatChanges()
+                .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+                .ignore(ElementMatchers.none())
+                .type(instrumentationModule.typeMatcher())
+                .transform(advice.transformer)
+                .installOn(instrumentation);
+
+        AtomicReference<Thread> target = new AtomicReference<>();
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        Runnable onMount = () -> {
+            if (Thread.currentThread() == target.get()) {
+                events.add("mount");
+            }
+        };
+        Runnable onUnmount = () -> {
+            if (Thread.currentThread() == target.get()) {
+                events.add("unmount");
+            }
+        };
+        AtomicBoolean released = new AtomicBoolean();
+        try {
+            hooks.getField("onUnmount").set(null, onUnmount);
+            hooks.getField("onMount").set(null, onMount);
+
+            Thread thread = newVirtualThread(() -> {
+                while (!released.get()) {
+                    LockSupport.park();
+                }
+            });
+            target.set(thread);
+            thread.start();
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            released.set(true);
+            LockSupport.unpark(thread);
+            thread.join(10_000);
+            Assertions.assertFalse(thread.isAlive());
+
+            // Started, parked, resumed and terminated: every mount is followed by an unmount.
+            List<String> seen = new ArrayList<>(events);
+            Assertions.assertTrue(seen.size() >= 4, seen.toString());
+            Assertions.assertEquals(0, seen.size() % 2, seen.toString());
+            for (int i = 0; i < seen.size(); i++) {
+                Assertions.assertEquals(i % 2 == 0 ? "mount" : "unmount", seen.get(i), seen.toString());
+            }
+        } finally {
+            hooks.getField("onMount").set(null, null);
+            hooks.getField("onUnmount").set(null, null);
+            instrumentation.removeTransformer(transformer);
+        }
+    }
+
+    private static Thread newVirtualThread(Runnable task) throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        return (Thread) Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class)
+                .invoke(builder, task);
+    }
+
+    private static final class AdviceCollector implements TypeTransformer {
+        AgentBuilder.Transformer.ForAdvice transformer = new AgentBuilder.Transformer.ForAdvice()
+                .include(VirtualThreadInstrumentation.class.getClassLoader());
+
+        @Override
+        public void applyAdviceToMethod(ElementMatcher<? super MethodDescription> matcher, String adviceClassName) {
+            transformer = transformer.advice(matcher, adviceClassName);
+        }
+
+        public void applyTransformer(AgentBuilder.Transformer transformer) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}